@@ -0,0 +1,30 @@
+package catdata.algs.kb;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *
+ * Runs the benchmarks with the GC profiler, so that allocation rates (gc.alloc.rate.norm, in
+ * bytes per operation) are reported next to times.  Takes the usual JMH arguments, e.g. a
+ * regular expression selecting benchmarks, -p depth=6, or -rf json -rff out.json to keep
+ * results for comparison across commits.
+ *
+ * bench/pom.xml compiles the sources under bench together with those of catdata_algs, running
+ * JMH's annotation processor, into target/benchmarks.jar; mvn package there, then
+ * java -cp target/benchmarks.jar catdata.algs.kb.KBBench.
+ */
+public class KBBench {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+
+}
@@ -0,0 +1,220 @@
+package catdata.algs.kb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
+
+import catdata.algs.Pair;
+
+/**
+ *
+ * Seeded generators of terms, words and presentations for the benchmarks.  A shape is a
+ * depth, the arity of the widest symbol, and the percentage of variable leaves that reuse a
+ * variable already in the term rather than a fresh one.
+ */
+final class KBBenchTerms {
+
+	private final Random rnd;
+	private final Map<String, Integer> sig;
+	private final List<String> funs = new ArrayList<>(), consts = new ArrayList<>();
+	private final int sharing;
+	private int vars = 0;
+
+	/**
+	 * @param sig the arity of each symbol; at least one must be a constant
+	 */
+	KBBenchTerms(long seed, Map<String, Integer> sig, int sharing) {
+		this.rnd = new Random(seed);
+		this.sig = sig;
+		this.sharing = sharing;
+		for (String f : sig.keySet()) {
+			(sig.get(f) == 0 ? consts : funs).add(f);
+		}
+	}
+
+	/**
+	 * A generator for words only.
+	 */
+	KBBenchTerms(long seed) {
+		this(seed, signature(2), 0);
+	}
+
+	/**
+	 * The signature of the term benchmarks: f of arity width, unary g, constants a and b.
+	 */
+	static Map<String, Integer> signature(int width) {
+		Map<String, Integer> ret = new LinkedHashMap<>();
+		ret.put("f", width);
+		ret.put("g", 1);
+		ret.put("a", 0);
+		ret.put("b", 0);
+		return ret;
+	}
+
+	/**
+	 * The precedence of the term benchmarks, by position in the signature, later is greater.
+	 */
+	static Function<Pair<String, String>, Boolean> precedence(Map<String, Integer> sig) {
+		List<String> order = new ArrayList<>(sig.keySet());
+		return p -> order.indexOf(p.first) > order.indexOf(p.second);
+	}
+
+	/**
+	 * @return a term of exactly the given depth whose leaves are variables with probability
+	 * 1/2, and constants otherwise
+	 */
+	KBExp<String, String> term(int depth) {
+		return term(depth, 50, new ArrayList<>());
+	}
+
+	/**
+	 * @return a ground term of the given depth
+	 */
+	KBExp<String, String> ground(int depth) {
+		return term(depth, 0, new ArrayList<>());
+	}
+
+	private KBExp<String, String> term(int depth, int varPercent, List<String> seen) {
+		if (depth == 0) {
+			if (rnd.nextInt(100) >= varPercent) {
+				return KBExp.mkApp(consts.get(rnd.nextInt(consts.size())), new ArrayList<>());
+			}
+			String v;
+			if (!seen.isEmpty() && rnd.nextInt(100) < sharing) {
+				v = seen.get(rnd.nextInt(seen.size()));
+			} else {
+				v = "x" + vars++;
+				seen.add(v);
+			}
+			return KBExp.mkVar(v);
+		}
+		String f = funs.get(rnd.nextInt(funs.size()));
+		List<KBExp<String, String>> args = new ArrayList<>();
+		for (int i = 0; i < sig.get(f); i++) {
+			args.add(term(depth - 1, varPercent, seen));
+		}
+		return KBExp.mkApp(f, args);
+	}
+
+	/**
+	 * @return a substitution sending each variable of e to a ground term of the given depth
+	 */
+	Map<String, KBExp<String, String>> instance(KBExp<String, String> e, int depth) {
+		Map<String, KBExp<String, String>> ret = new HashMap<>();
+		for (String v : e.vars()) {
+			ret.put(v, ground(depth));
+		}
+		return ret;
+	}
+
+	/**
+	 * @return a substitution renaming the variables of e apart from those of every other term
+	 * made by this generator
+	 */
+	Map<String, KBExp<String, String>> renaming(KBExp<String, String> e) {
+		Map<String, KBExp<String, String>> ret = new HashMap<>();
+		for (String v : e.vars()) {
+			ret.put(v, KBExp.mkVar("x" + vars++));
+		}
+		return ret;
+	}
+
+	/**
+	 * @return a position of e of the given depth, or of the greatest depth short of that
+	 */
+	int position(KBExp<String, String> e, int depth) {
+		int p = 0;
+		for (int d = 0; d < depth && !e.isVar && e.getApp().args.length > 0; d++) {
+			int i = rnd.nextInt(e.getApp().args.length);
+			p++;
+			for (int j = 0; j < i; j++) {
+				p += e.getApp().args[j].size;
+			}
+			e = e.getApp().args[i];
+		}
+		return p;
+	}
+
+	/**
+	 * @return a random word of the given length over the letters
+	 */
+	List<String> word(List<String> letters, int length) {
+		List<String> ret = new ArrayList<>(length);
+		for (int i = 0; i < length; i++) {
+			ret.add(letters.get(rnd.nextInt(letters.size())));
+		}
+		return ret;
+	}
+
+	/**
+	 * @return a fresh variable generator for KB
+	 */
+	static Iterator<String> fresh() {
+		return new Iterator<String>() {
+			private int i = 0;
+
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public String next() {
+				return "_v" + i++;
+			}
+		};
+	}
+
+	@SafeVarargs
+	static KBExp<String, String> app(String f, KBExp<String, String>... args) {
+		List<KBExp<String, String>> l = new ArrayList<>(args.length);
+		for (KBExp<String, String> arg : args) {
+			l.add(arg);
+		}
+		return KBExp.mkApp(f, l);
+	}
+
+	static KBExp<String, String> var(String v) {
+		return KBExp.mkVar(v);
+	}
+
+	/**
+	 * The axioms of groups, over *, i and e.
+	 */
+	static Set<Pair<KBExp<String, String>, KBExp<String, String>>> groups() {
+		Set<Pair<KBExp<String, String>, KBExp<String, String>>> ret = new HashSet<>();
+		ret.add(new Pair<>(app("*", app("*", var("x"), var("y")), var("z")), app("*", var("x"), app("*", var("y"), var("z")))));
+		ret.add(new Pair<>(app("*", app("e"), var("x")), var("x")));
+		ret.add(new Pair<>(app("*", app("i", var("x")), var("x")), app("e")));
+		return ret;
+	}
+
+	static Map<String, Integer> groupSignature() {
+		Map<String, Integer> ret = new LinkedHashMap<>();
+		ret.put("e", 0);
+		ret.put("*", 2);
+		ret.put("i", 1);
+		return ret;
+	}
+
+	/**
+	 * The monoid presentation of the alternating group A4, as &lt;a, b | aa, bbb, ababab&gt;.
+	 * The pairs are fresh, as KB_Thue mutates them.
+	 */
+	static Set<Pair<List<String>, List<String>>> a4() {
+		Set<Pair<List<String>, List<String>>> ret = new HashSet<>();
+		ret.add(new Pair<>(new ArrayList<>(Arrays.asList("a", "a")), new ArrayList<>()));
+		ret.add(new Pair<>(new ArrayList<>(Arrays.asList("b", "b", "b")), new ArrayList<>()));
+		ret.add(new Pair<>(new ArrayList<>(Arrays.asList("a", "b", "a", "b", "a", "b")), new ArrayList<>()));
+		return ret;
+	}
+
+}
@@ -0,0 +1,222 @@
+package catdata.algs.kb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+import catdata.algs.Pair;
+
+/**
+ *
+ * The problems run by KBHarness: group axioms, monoid presentations, finitely presented
+ * categories, and random category presentations of growing size.  Every problem is rebuilt
+ * from scratch, with fixed seeds, for each run.
+ *
+ * A category presentation is a set of equations between paths, a path being a list of
+ * generators composed left to right.  It is completed by KB_Thue as words, and by KB with KBO
+ * as terms over unary symbols, the path g1...gk becoming gk(...g1(x)).
+ */
+final class KBCorpus {
+
+	/**
+	 * The outcome of one run: a status (a KBCompletion.Status, or FAILED when completion
+	 * threw), the steps taken, and the final number of rules and of equations.
+	 */
+	static final class Outcome {
+		final String status;
+		final int steps, rules, equations;
+
+		Outcome(String status, int steps, int rules, int equations) {
+			this.status = status;
+			this.steps = steps;
+			this.rules = rules;
+			this.equations = equations;
+		}
+	}
+
+	abstract static class Problem {
+		final String name, engine;
+		final int size;
+
+		Problem(String name, String engine, int size) {
+			this.name = name;
+			this.engine = engine;
+			this.size = size;
+		}
+
+		/**
+		 * @param millis the budget of KB runs; KB_Thue runs are bounded by iterations only
+		 */
+		abstract Outcome run(long millis);
+	}
+
+	private KBCorpus() {
+	}
+
+	/**
+	 * @param sizes the numbers of generators (and of relations) of the random presentations
+	 * @param thueMax the largest random presentation to run through KB_Thue, whose steps are
+	 * not interruptible
+	 */
+	static List<Problem> corpus(List<Integer> sizes, int thueMax) {
+		List<Problem> ret = new ArrayList<>();
+		List<String> grp = new ArrayList<>(KBBenchTerms.groupSignature().keySet());
+		ret.add(kb("groups-lpo", 3, KBBenchTerms.groups(), KBOrders.lpogt(p -> grp.indexOf(p.first) > grp.indexOf(p.second)), false));
+		ret.add(kb("groups-kbo", 3, KBBenchTerms.groups(), KBOrders.kbogt(c -> c.equals("i") ? 0 : 1, 1,
+				p -> grp.indexOf(p.first) > grp.indexOf(p.second)), false));
+		ret.add(kb("commutative-monoid", 2, commutativeMonoid(), KBOrders.lpogt(p -> grp.indexOf(p.first) > grp.indexOf(p.second)), true));
+
+		Map<String, List<Pair<List<String>, List<String>>>> paths = new LinkedHashMap<>();
+		paths.put("monoid-a4", words("a.a=", "b.b.b=", "a.b.a.b.a.b="));
+		paths.put("monoid-s3", words("a.a=", "b.b.b=", "a.b.a.b="));
+		paths.put("monoid-z3xz4", words("a.a.a=", "b.b.b.b=", "b.a=a.b"));
+		paths.put("category-idempotent", words("f.f=f", "f.g=g", "h.f=h"));
+		paths.put("category-square", words("a.b=c.d", "s.r=", "r.s.a=a", "d.s.r=d"));
+		paths.put("category-retracts", words("s1.r1=", "s2.r2=", "r1.s2.r2.s1=r1.s1", "s1.r1.s2=s2"));
+		for (Map.Entry<String, List<Pair<List<String>, List<String>>>> e : paths.entrySet()) {
+			ret.add(kbPaths(e.getKey(), generators(e.getValue()).size(), e.getValue()));
+			ret.add(thue(e.getKey(), generators(e.getValue()).size(), e.getValue()));
+		}
+
+		for (int n : sizes) {
+			List<Pair<List<String>, List<String>>> rels = random(n, 31L * n);
+			ret.add(kbPaths("random-category", n, rels));
+			if (n <= thueMax) {
+				ret.add(thue("random-category", n, rels));
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return n relations between paths over n generators, each a path of length 2 or 3 equal
+	 * to one of length 0 or 1, so that KB_Thue can orient them all
+	 */
+	static List<Pair<List<String>, List<String>>> random(int n, long seed) {
+		Random rnd = new Random(seed);
+		List<String> gens = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			gens.add("g" + i);
+		}
+		Set<Pair<List<String>, List<String>>> ret = new LinkedHashSet<>();
+		while (ret.size() < n) {
+			List<String> lhs = new ArrayList<>(), rhs = new ArrayList<>();
+			for (int i = 2 + rnd.nextInt(2); i > 0; i--) {
+				lhs.add(gens.get(rnd.nextInt(n)));
+			}
+			for (int i = rnd.nextInt(2); i > 0; i--) {
+				rhs.add(gens.get(rnd.nextInt(n)));
+			}
+			ret.add(new Pair<>(lhs, rhs));
+		}
+		return new ArrayList<>(ret);
+	}
+
+	//"a.b=c" is the relation ab = c, and "a.b=" is ab = 1
+	private static List<Pair<List<String>, List<String>>> words(String... rels) {
+		List<Pair<List<String>, List<String>>> ret = new ArrayList<>();
+		for (String rel : rels) {
+			String[] lr = rel.split("=", -1);
+			ret.add(new Pair<>(path(lr[0]), path(lr[1])));
+		}
+		return ret;
+	}
+
+	private static List<String> path(String s) {
+		return s.isEmpty() ? new ArrayList<>() : new ArrayList<>(Arrays.asList(s.split("\\.")));
+	}
+
+	private static Set<Pair<KBExp<String, String>, KBExp<String, String>>> commutativeMonoid() {
+		Set<Pair<KBExp<String, String>, KBExp<String, String>>> ret = new HashSet<>();
+		ret.add(new Pair<>(KBBenchTerms.app("*", KBBenchTerms.var("x"), KBBenchTerms.var("y")),
+				KBBenchTerms.app("*", KBBenchTerms.var("y"), KBBenchTerms.var("x"))));
+		ret.add(new Pair<>(KBBenchTerms.app("*", KBBenchTerms.app("e"), KBBenchTerms.var("x")), KBBenchTerms.var("x")));
+		return ret;
+	}
+
+	private static Problem kb(String name, int size, Set<Pair<KBExp<String, String>, KBExp<String, String>>> eqs,
+			Function<Pair<KBExp<String, String>, KBExp<String, String>>, Boolean> gt, boolean unfailing) {
+		return new Problem(name, "kb", size) {
+			@Override
+			Outcome run(long millis) {
+				KB<String, String> kb = new KB<>(eqs, gt, KBBenchTerms.fresh(), unfailing, true, 0, 100);
+				try {
+					KBCompletion<String, String> c = kb.complete(millis, 0, 0);
+					return new Outcome(c.status.name(), c.steps, kb.R.size(), kb.E.size());
+				} catch (RuntimeException ex) {
+					return new Outcome("FAILED", kb.count, kb.R.size(), kb.E.size());
+				}
+			}
+		};
+	}
+
+	//paths as unary terms, under KBO with unit weights, which compares paths by length first
+	private static Problem kbPaths(String name, int size, List<Pair<List<String>, List<String>>> rels) {
+		Set<Pair<KBExp<String, String>, KBExp<String, String>>> eqs = new HashSet<>();
+		for (Pair<List<String>, List<String>> rel : rels) {
+			eqs.add(new Pair<>(term(rel.first), term(rel.second)));
+		}
+		Map<String, Integer> prec = new HashMap<>();
+		for (String g : generators(rels)) {
+			prec.put(g, prec.size());
+		}
+		return kb(name, size, eqs, KBOrders.kbogt(c -> 1, 1, p -> prec.get(p.first) > prec.get(p.second)), false);
+	}
+
+	private static KBExp<String, String> term(List<String> path) {
+		KBExp<String, String> ret = KBBenchTerms.var("x");
+		for (String g : path) {
+			ret = KBBenchTerms.app(g, ret);
+		}
+		return ret;
+	}
+
+	//the generators occurring in rels, in order
+	private static Set<String> generators(List<Pair<List<String>, List<String>>> rels) {
+		Set<String> ret = new TreeSet<>();
+		for (Pair<List<String>, List<String>> rel : rels) {
+			ret.addAll(rel.first);
+			ret.addAll(rel.second);
+		}
+		return ret;
+	}
+
+	private static Problem thue(String name, int size, List<Pair<List<String>, List<String>>> rels) {
+		return new Problem(name, "thue", size) {
+			@Override
+			Outcome run(long millis) {
+				//fresh pairs, as KB_Thue mutates them
+				Set<Pair<List<String>, List<String>>> rules = new HashSet<>();
+				for (Pair<List<String>, List<String>> rel : rels) {
+					rules.add(new Pair<>(new ArrayList<>(rel.first), new ArrayList<>(rel.second)));
+				}
+				KB_Thue<String> kb = new KB_Thue<>(rules, 64);
+				int[] steps = new int[1];
+				kb.setListener(s -> steps[0]++);
+				String status = "COMPLETE";
+				try {
+					kb.complete();
+				} catch (RuntimeException ex) {
+					status = "FAILED";
+				}
+				int equal = 0;
+				for (Pair<List<String>, List<String>> r : kb.getRules()) {
+					if (r.first.size() == r.second.size()) {
+						equal++;
+					}
+				}
+				return new Outcome(status, steps[0], kb.getRules().size() - equal, equal);
+			}
+		};
+	}
+
+}
@@ -0,0 +1,163 @@
+package catdata.algs.kb;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * Runs completion on the problems of KBCorpus, one after another on one thread, and writes a
+ * line per run, tab separated with a header, of: problem, engine, size, status, millis, steps,
+ * rules, equations, peak heap and bytes allocated.  Given the output of an earlier commit as
+ * baseline, reports the runs that regressed and exits with status 1 if there are any.
+ *
+ * A run regresses if its status, steps, rules or equations differ from the baseline (these do
+ * not depend on timing, unless the run hit its budget), or if its time or allocation grew by
+ * more than the tolerance, ignoring differences under 50 ms and 1 MB.
+ *
+ * Arguments, all optional:
+ *
+ *   -o file          where to write results (default: standard output)
+ *   -baseline file   results to compare against
+ *   -tolerance pct   allowed growth of time and allocation (default 25)
+ *   -millis n        budget of each KB run (default 10000)
+ *   -sizes a,b,...   generators of the random presentations (default 10,30,100,300,1000,3000)
+ *   -thue-max n      largest random presentation for KB_Thue (default 100)
+ *   -warmup n        times to run the corpus before measuring (default 1)
+ */
+public class KBHarness {
+
+	private static final String HEADER = "problem\tengine\tsize\tstatus\tmillis\tsteps\trules\tequations\tpeak_heap\talloc";
+
+	public static void main(String[] args) throws IOException {
+		Map<String, String> opts = new HashMap<>();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			opts.put(args[i], args[i + 1]);
+		}
+		long millis = Long.parseLong(opts.getOrDefault("-millis", "10000"));
+		int tolerance = Integer.parseInt(opts.getOrDefault("-tolerance", "25"));
+		int warmup = Integer.parseInt(opts.getOrDefault("-warmup", "1"));
+		int thueMax = Integer.parseInt(opts.getOrDefault("-thue-max", "100"));
+		List<Integer> sizes = new ArrayList<>();
+		for (String n : opts.getOrDefault("-sizes", "10,30,100,300,1000,3000").split(",")) {
+			sizes.add(Integer.parseInt(n.trim()));
+		}
+
+		//warm up on the fixed problems and the smallest random ones only
+		for (int i = 0; i < warmup; i++) {
+			for (KBCorpus.Problem p : KBCorpus.corpus(sizes.subList(0, Math.min(1, sizes.size())), thueMax)) {
+				p.run(millis);
+			}
+		}
+
+		List<String> lines = new ArrayList<>();
+		lines.add(HEADER);
+		for (KBCorpus.Problem p : KBCorpus.corpus(sizes, thueMax)) {
+			String line = measure(p, millis);
+			lines.add(line);
+			System.err.println(line);
+		}
+
+		if (opts.containsKey("-o")) {
+			Files.write(Paths.get(opts.get("-o")), lines, StandardCharsets.UTF_8);
+		} else {
+			lines.forEach(System.out::println);
+		}
+
+		if (opts.containsKey("-baseline")) {
+			List<String> regressions = compare(Paths.get(opts.get("-baseline")), lines, tolerance);
+			for (String r : regressions) {
+				System.err.println("REGRESSION " + r);
+			}
+			if (!regressions.isEmpty()) {
+				System.exit(1);
+			}
+		}
+	}
+
+	private static String measure(KBCorpus.Problem p, long millis) {
+		System.gc();
+		List<MemoryPoolMXBean> heap = new ArrayList<>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+				heap.add(pool);
+			}
+		}
+		long alloc0 = allocated();
+		long start = System.nanoTime();
+		KBCorpus.Outcome o = p.run(millis);
+		long elapsed = (System.nanoTime() - start) / 1000000;
+		long alloc = allocated() - alloc0;
+		long peak = 0;
+		for (MemoryPoolMXBean pool : heap) {
+			peak += pool.getPeakUsage().getUsed();
+		}
+		return String.join("\t", p.name, p.engine, Integer.toString(p.size), o.status, Long.toString(elapsed),
+				Integer.toString(o.steps), Integer.toString(o.rules), Integer.toString(o.equations),
+				Long.toString(peak), Long.toString(alloc));
+	}
+
+	//bytes allocated by this thread so far, or 0 where the JVM does not say
+	private static long allocated() {
+		java.lang.management.ThreadMXBean t = ManagementFactory.getThreadMXBean();
+		if (t instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) t).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+
+	/**
+	 * @return a description of each run in now that regressed from its run in the baseline
+	 */
+	static List<String> compare(Path baseline, List<String> now, int tolerance) throws IOException {
+		Map<String, String[]> base = new HashMap<>();
+		for (String line : Files.readAllLines(baseline, StandardCharsets.UTF_8)) {
+			if (!line.equals(HEADER)) {
+				String[] f = line.split("\t");
+				base.put(f[0] + "\t" + f[1] + "\t" + f[2], f);
+			}
+		}
+		List<String> ret = new ArrayList<>();
+		for (String line : now) {
+			if (line.equals(HEADER)) {
+				continue;
+			}
+			String[] f = line.split("\t");
+			String[] b = base.get(f[0] + "\t" + f[1] + "\t" + f[2]);
+			if (b == null) {
+				continue;
+			}
+			String run = f[0] + " " + f[1] + " " + f[2] + ": ";
+			boolean budgeted = b[3].equals("TIMEOUT") && f[3].equals("TIMEOUT");
+			if (!b[3].equals(f[3])) {
+				ret.add(run + "status " + b[3] + " -> " + f[3]);
+			} else if (!budgeted && !Arrays.equals(Arrays.copyOfRange(b, 5, 8), Arrays.copyOfRange(f, 5, 8))) {
+				ret.add(run + "steps/rules/equations " + String.join("/", Arrays.copyOfRange(b, 5, 8)) + " -> "
+						+ String.join("/", Arrays.copyOfRange(f, 5, 8)));
+			}
+			if (grew(Long.parseLong(b[4]), Long.parseLong(f[4]), tolerance, 50)) {
+				ret.add(run + "millis " + b[4] + " -> " + f[4]);
+			}
+			if (grew(Long.parseLong(b[9]), Long.parseLong(f[9]), tolerance, 1 << 20)) {
+				ret.add(run + "alloc " + b[9] + " -> " + f[9]);
+			}
+		}
+		return ret;
+	}
+
+	private static boolean grew(long before, long after, int tolerance, long floor) {
+		return after - before > floor && after * 100 > before * (100 + tolerance);
+	}
+
+}
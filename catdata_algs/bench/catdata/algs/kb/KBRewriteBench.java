@@ -0,0 +1,83 @@
+package catdata.algs.kb;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ *
+ * Rewriting with a completed system: one root step, and whole normal forms, of terms over the
+ * group signature.  Group theory is completed once per trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KBRewriteBench {
+
+	@Param({ "3", "6" })
+	public int depth;
+
+	@Param({ "0", "50", "90" })
+	public int sharing;
+
+	private KB<String, String> kb;
+	private final List<KBExp<String, String>> terms = new ArrayList<>();
+	private final List<KBExp<String, String>> redexes = new ArrayList<>();
+
+	@Setup
+	public void setup() {
+		List<String> order = new ArrayList<>(KBBenchTerms.groupSignature().keySet());
+		kb = new KB<>(KBBenchTerms.groups(), KBOrders.lpogt(p -> order.indexOf(p.first) > order.indexOf(p.second)),
+				KBBenchTerms.fresh(), false, true, 20000, 100);
+		if (!kb.complete(60000, 0, 0).isDone()) {
+			throw new RuntimeException("Group theory did not complete.");
+		}
+		KBBenchTerms gen = new KBBenchTerms(23, KBBenchTerms.groupSignature(), sharing);
+		while (terms.size() < 64) {
+			KBExp<String, String> t = gen.term(depth);
+			terms.add(t);
+			if (kb.step1(Collections.emptyList(), kb.Ridx, t) != null) {
+				redexes.add(t);
+			}
+		}
+	}
+
+	/**
+	 * One root step on each of the generated terms that are redexes.
+	 */
+	@Benchmark
+	public void step1(Blackhole bh) {
+		for (KBExp<String, String> t : redexes) {
+			bh.consume(kb.step1(Collections.emptyList(), kb.Ridx, t));
+		}
+	}
+
+	/**
+	 * The normal form of each generated term, with a cache private to each term.
+	 */
+	@Benchmark
+	public void red(Blackhole bh) {
+		for (KBExp<String, String> t : terms) {
+			bh.consume(kb.red(new HashMap<>(), Collections.emptyList(), kb.Ridx, t));
+		}
+	}
+
+}
@@ -0,0 +1,117 @@
+package catdata.algs.kb;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import catdata.algs.Pair;
+import catdata.algs.Triple;
+
+/**
+ *
+ * The term primitives: unification, matching, substitution, replacement, overlaps, and LPO.
+ * Every input is built once per trial from a seeded generator, so runs are comparable.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KBTermBench {
+
+	@Param({ "3", "6" })
+	public int depth;
+
+	@Param({ "2", "3" })
+	public int width;
+
+	@Param({ "0", "50", "90" })
+	public int sharing;
+
+	private KBExp<String, String> pattern, subject, renamed, unifiable, rhs, ground;
+	private Map<String, KBExp<String, String>> sigma;
+	private int pos;
+	private Function<Pair<KBExp<String, String>, KBExp<String, String>>, Boolean> lpo;
+	private Pair<KBExp<String, String>, KBExp<String, String>> lpoPair;
+	private Function<Pair<String, String>, Boolean> prec;
+
+	@Setup
+	public void setup() {
+		Map<String, Integer> sig = KBBenchTerms.signature(width);
+		KBBenchTerms gen = new KBBenchTerms(17, sig, sharing);
+		pattern = gen.term(depth);
+		sigma = gen.instance(pattern, 2);
+		subject = pattern.subst(sigma);
+		//a variant of pattern, instantiated at half its variables, so that unification succeeds
+		renamed = pattern.subst(gen.renaming(pattern));
+		Map<String, KBExp<String, String>> half = gen.instance(renamed, 1);
+		half.keySet().removeIf(v -> v.hashCode() % 2 == 0);
+		unifiable = renamed.subst(half);
+		pos = gen.position(pattern, depth / 2);
+		ground = gen.ground(1);
+		rhs = gen.ground(1);
+		prec = KBBenchTerms.precedence(sig);
+		lpo = KBOrders.lpogt(prec);
+		lpoPair = new Pair<>(subject, subject.replace(pos, ground));
+	}
+
+	@Benchmark
+	public Map<String, KBExp<String, String>> unify0() {
+		return KBUnifier.unify0(pattern, unifiable);
+	}
+
+	@Benchmark
+	public Map<String, KBExp<String, String>> findSubst() {
+		return KBUnifier.findSubst(pattern, subject);
+	}
+
+	@Benchmark
+	public KBExp<String, String> subst() {
+		return pattern.subst(sigma);
+	}
+
+	@Benchmark
+	public KBExp<String, String> replace() {
+		return subject.replace(pos, ground);
+	}
+
+	/**
+	 * Overlaps of a renamed copy of the subterm of pattern at pos into pattern, at every position.
+	 */
+	@Benchmark
+	public Set<Triple<KBExp<String, String>, KBExp<String, String>, Map<String, KBExp<String, String>>>> cp() {
+		KBExp<String, String> a = renamed.at(pos);
+		return pattern.cp(0, a, rhs, pattern, rhs);
+	}
+
+	/**
+	 * LPO with a fresh cache, as the first comparison of a pair during completion.
+	 */
+	@Benchmark
+	public Boolean lpogt() {
+		return KBOrders.<String, String>lpogt(prec).apply(lpoPair);
+	}
+
+	/**
+	 * LPO on a pair it has compared before.
+	 */
+	@Benchmark
+	public Boolean lpogtCached() {
+		return lpo.apply(lpoPair);
+	}
+
+}
@@ -0,0 +1,58 @@
+package catdata.algs.kb;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * Word problems in a completed monoid presentation of A4: normal forms, which only use the
+ * length-reducing rules, and equivalence, which also closes under the length-preserving ones.
+ * Equivalence of a fresh pair is measured, as repeated pairs are answered from a cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KBThueBench {
+
+	@Param({ "16", "256" })
+	public int length;
+
+	private KB_Thue<String> kb;
+	private KBBenchTerms gen;
+	private List<String> word;
+
+	@Setup
+	public void setup() {
+		kb = new KB_Thue<>(KBBenchTerms.a4(), 1000);
+		kb.complete();
+		gen = new KBBenchTerms(29);
+		word = gen.word(Arrays.asList("a", "b"), length);
+	}
+
+	@Benchmark
+	public List<String> normalize() {
+		return kb.normalize("", word);
+	}
+
+	@Benchmark
+	public boolean equiv() {
+		return kb.equiv(word, gen.word(Arrays.asList("a", "b"), length));
+	}
+
+}
@@ -1,22 +1,33 @@
 package catdata.algs.kb;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 
 import catdata.algs.Pair;
 import catdata.algs.Triple;
 import catdata.algs.kb.KBExp.KBApp;
 import catdata.algs.kb.KBExp.KBVar;
+import catdata.algs.kb.KBStats.Counter;
 //import fql_lib.DEBUG;
 
 /**
@@ -29,6 +40,12 @@ import catdata.algs.kb.KBExp.KBVar;
  * Note: eq is not a true semi-decision procedure for systems that are only ground complete, because eq does not skolemize.
  * Note: printKB assumes <C> and <V> is String
  * Note: will not orient var = const
+ * Note: red_its, the last argument of the constructor, used to bound the number of rewriting
+ * passes over a term, each rewriting every redex it found once.  Terms are now normalized in a
+ * single innermost traversal, which has no passes, so red_its bounds the number of rewrite steps
+ * instead, at red_its per symbol of the term being normalized.  A pass rewrote at most one redex
+ * per symbol, so unless the term grows while it is rewritten, a reduction that used to finish
+ * still does; one that diverges fails after a number of steps that grows with the term.
  *
  * @param <C> the type of functions/constants
  * @param <V> the type of variables
@@ -38,13 +55,66 @@ public class KB<C, V> {
 	protected boolean isComplete = false;
 	protected boolean isCompleteGround = false;
 	
-	protected List<Pair<KBExp<C, V>, KBExp<C, V>>> E;
+	protected KBPassive<C, V> E;
 	protected Set<Pair<KBExp<C, V>, KBExp<C, V>>> R;
+	protected KBIndex<C, V, Pair<KBExp<C, V>, KBExp<C, V>>> Ridx = new KBIndex<>();
+	
+	//non-variable subterms of the left-hand sides of R, and of E in both orientations, for critical pairs 
+	protected KBIndex<C, V, Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Integer>> Rsub = new KBIndex<>();
+	protected KBIndex<C, V, Pair<KBExp<C, V>, KBExp<C, V>>> Eidx = new KBIndex<>();
+	protected KBIndex<C, V, Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Integer>> Esub = new KBIndex<>();
+	
+	//whether an instance of E, in the orientation of the key, rewrites its left-hand side to its 
+	//right-hand side in ordered rewriting, as far as known from the equation itself
+	protected Map<Pair<KBExp<C, V>, KBExp<C, V>>, Orientation> Eorient = new HashMap<>();
+	
+	protected enum Orientation {
+		ALWAYS, NEVER, CHECK
+	}
+	
+	//non-variable subterms of the right-hand sides of R, as in Rsub for the reversed rules, for inter-reduction
+	protected KBIndex<C, V, Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Integer>> RsubRhs = new KBIndex<>();
+	
+	//rules, and equations of E used for rewriting, added since the last compose.  The right-hand 
+	//sides of the other rules are in normal form
+	protected List<Pair<KBExp<C, V>, KBExp<C, V>>> reducers = new ArrayList<>();
+	
+	//normal forms under R, and under E and R, kept across steps.  version grows with every rule, and 
+	//every equation used for rewriting, added; bornR and bornE record the version each rule and 
+	//orientation of an equation was added at
+	protected long version = 0;
+	protected Map<Pair<KBExp<C, V>, KBExp<C, V>>, Long> bornR = new HashMap<>();
+	protected Map<Pair<KBExp<C, V>, KBExp<C, V>>, Long> bornE = new HashMap<>();
+	protected KBNormalForms<C, V> nfR = new KBNormalForms<>(1 << 16, false, () -> version, (e, since) -> stale(e, since, false));
+	protected KBNormalForms<C, V> nfER = new KBNormalForms<>(1 << 16, false, () -> version, (e, since) -> stale(e, since, true));
+	
+	//R and E keyed on both sides, for subsumption
+	protected KBIndex<C, V, Pair<KBExp<C, V>, KBExp<C, V>>> Rpairs = new KBIndex<>();
+	protected KBIndex<C, V, Pair<KBExp<C, V>, KBExp<C, V>>> Epairs = new KBIndex<>();
 	
 	protected Iterator<V> fresh;
 	
+	//the variables of equations in E and R are numbered by first occurrence and drawn from bank 0.
+	//a copy for overlapping with another equation uses the same numbers in bank 1, so rewriting 
+	//and critical pairs never need renaming
+	protected final List<KBVar<C, V>> bank0 = new ArrayList<>();
+	protected final List<KBVar<C, V>> bank1 = new ArrayList<>();
+	protected final Map<V, KBExp<C, V>> toBank1 = new HashMap<>();
+	protected final Map<KBExp<C, V>, KBExp<C, V>> shifted = new ConcurrentHashMap<>();
+	
 	protected Function<Pair<KBExp<C, V>, KBExp<C, V>>, Boolean> gt;
-	protected Set<Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Pair<KBExp<C, V>, KBExp<C, V>>>> seen = new HashSet<>();	
+	//the ordering as given; gt counts the calls to it while a step is measured
+	private final Function<Pair<KBExp<C, V>, KBExp<C, V>>, Boolean> order;
+	protected Set<Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Pair<KBExp<C, V>, KBExp<C, V>>>> seen = ConcurrentHashMap.newKeySet();	
+	
+	//for checking ground confluence incrementally: the overlaps of members of E and R tried so far, 
+	//their critical pairs, and the critical pairs known to be joinable, with the members used to join them
+	protected Set<Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Pair<KBExp<C, V>, KBExp<C, V>>>> confSeen = new HashSet<>();
+	protected Map<Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Pair<KBExp<C, V>, KBExp<C, V>>>, Set<Pair<KBExp<C, V>, KBExp<C, V>>>> confCps = new HashMap<>();
+	protected Map<Pair<KBExp<C, V>, KBExp<C, V>>, Set<Pair<KBExp<C, V>, KBExp<C, V>>>> joined = new HashMap<>();
+	
+	//runs critical pair generation, and the reductions and subsumption checks of critical pairs, if not null
+	protected ForkJoinPool pool = null;
 	
 	protected int count = 0;
 
@@ -53,24 +123,47 @@ public class KB<C, V> {
 	protected int iterations;
 	protected int red_its;
 	
+	//inverses of the changes to E and R made by the current step, for rolling it back
+	private List<Runnable> undo = null;
+	
+	private volatile boolean cancelled = false;
+	private boolean running = false;
+	private long deadline = Long.MAX_VALUE;
+	private int polls = 0;
+	
+	protected KBListener listener = null;
+	//metrics of the step in progress, if measured
+	protected KBStats stats = null;
+	
 	/**
 	 * @param E0 initial equations
 	 * @param gt0 ordering
 	 * @param fresh fresh variable generator
 	 * @param unfailing allow unorientable equations
-	 * @param sort_cps process shorter critical pairs first 
-	 * @param iterations max iterations to use for completion
-	 * @param red_its max iterations to use for reduction
+	 * @param sort_cps process shorter critical pairs first (by symbol count), otherwise first-in first-out
+	 * @param iterations max milliseconds to use for completion, in complete()
+	 * @param red_its max rewrite steps per symbol of a term, when reducing it; formerly max
+	 * rewriting passes, see above
 	 */
 	public KB(Set<Pair<KBExp<C, V>, KBExp<C, V>>> E0, Function<Pair<KBExp<C, V>, 
 			KBExp<C, V>>, Boolean> gt0, Iterator<V> fresh,
 			boolean unfailing, boolean sort_cps, int iterations, int red_its) {
 		this.R = new HashSet<>();
-		this.gt = gt0;
+		this.order = gt0;
+		this.gt = x -> {
+			KBStats s = stats;
+			if (s != null) {
+				s.inc(Counter.ORDERINGS);
+			}
+			return order.apply(x);
+		};
 		this.fresh = fresh;
-		this.E = new LinkedList<>(E0);
 		this.unfailing = unfailing;
 		this.sort_cps = sort_cps;
+		this.E = new KBPassive<>(this::orientable, sort_cps ? KBPassive.symbolCount() : null, 0, true);
+		for (Pair<KBExp<C, V>, KBExp<C, V>> e : E0) {
+			addE(e);
+		}
 		this.iterations = iterations;
 		this.red_its = red_its;
 	}
@@ -78,136 +171,505 @@ public class KB<C, V> {
 	
 	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 	
-	protected static <C, V> Pair<KBExp<C, V>, KBExp<C, V>> freshen(Iterator<V> fresh, Pair<KBExp<C, V>, KBExp<C, V>> eq) {
-		Map<V, KBExp<C, V>> subst = freshenMap(fresh, eq).first;
-		return new Pair<>(eq.first.subst(subst), eq.second.subst(subst));
+	protected synchronized KBVar<C, V> bank0(int i) {
+		while (bank0.size() <= i) {
+			KBVar<C, V> v0 = KBExp.mkVar(fresh.next());
+			KBVar<C, V> v1 = KBExp.mkVar(fresh.next());
+			bank0.add(v0);
+			bank1.add(v1);
+			toBank1.put(v0.var, v1);
+		}
+		return bank0.get(i);
 	}
-
-	protected static <C,V> Pair<Map<V, KBExp<C, V>>, Map<V, KBExp<C, V>>> freshenMap(
-			Iterator<V> fresh, Pair<KBExp<C, V>, KBExp<C, V>> eq) {
-		Set<V> vars = new HashSet<>();
-		KBExp<C, V> lhs = eq.first;
-		KBExp<C, V> rhs = eq.second;
-		vars.addAll(lhs.vars());
-		vars.addAll(rhs.vars());
-		Map<V, KBExp<C, V>> subst = new HashMap<>();
-		Map<V, KBExp<C, V>> subst_inv = new HashMap<>();
-		for (V v : vars) {
-			V fr = fresh.next();
-			subst.put(v, new KBVar<>(fr));
-			subst_inv.put(fr, new KBVar<>(v));
+	
+	/**
+	 * @return eq with its i-th distinct variable, in preorder, renamed to bank0(i)
+	 */
+	protected Pair<KBExp<C, V>, KBExp<C, V>> canonical(Pair<KBExp<C, V>, KBExp<C, V>> eq) {
+		Map<V, KBExp<C, V>> s = new HashMap<>();
+		boolean same = number(eq.first, s) & number(eq.second, s);
+		if (same) {
+			return eq;
+		}
+		return new Pair<>(eq.first.subst(s), eq.second.subst(s));
+	}
+	
+	private boolean number(KBExp<C, V> e, Map<V, KBExp<C, V>> s) {
+		if (e.isVar) {
+			V v = e.getVar().var;
+			if (!s.containsKey(v)) {
+				KBVar<C, V> b = bank0(s.size());
+				s.put(v, b);
+				return b == e;
+			}
+			return s.get(v) == e;
+		}
+		boolean same = true;
+		for (KBExp<C, V> arg : e.getApp().args) {
+			same &= number(arg, s);
 		}
-		return new Pair<>(subst, subst_inv);
+		return same;
 	}
 	
+	/**
+	 * @return eq, whose variables are in bank 0, with its variables moved to bank 1
+	 */
+	protected Pair<KBExp<C, V>, KBExp<C, V>> shift(Pair<KBExp<C, V>, KBExp<C, V>> eq) {
+		return new Pair<>(shift(eq.first), shift(eq.second));
+	}
+	
+	private KBExp<C, V> shift(KBExp<C, V> e) {
+		KBExp<C, V> ret = shifted.get(e);
+		if (ret == null) {
+			ret = e.subst(toBank1);
+			shifted.put(e, ret);
+		}
+		return ret;
+	}
+	
+	private void unshift(Pair<KBExp<C, V>, KBExp<C, V>> eq) {
+		shifted.remove(eq.first);
+		shifted.remove(eq.second);
+	}
+
+	private void log(Runnable inverse) {
+		if (undo != null) {
+			undo.add(inverse);
+		}
+	}
 
-	protected static <X> void remove(Collection<X> X, X x) {
-		while (X.remove(x));
+	protected void addRule(Pair<KBExp<C, V>, KBExp<C, V>> r) {
+		if (R.add(r)) {
+			Ridx.put(r.first, r);
+			Rpairs.put(r.first, r.second, r);
+			indexSubterms(Rsub, r, true);
+			indexSubterms(RsubRhs, r.reverse(), true);
+			reducers.add(r);
+			bornR.put(r, ++version);
+			log(() -> removeRule(r));
+		}
+	}
+
+	protected void removeRule(Pair<KBExp<C, V>, KBExp<C, V>> r) {
+		if (R.remove(r)) {
+			unindexRule(r);
+			log(() -> addRule(r));
+		}
 	}
 	
-	protected static <X> void add(Collection<X> X, X x) {
-		if (!X.contains(x)) {
-			X.add(x);
+	private void unindexRule(Pair<KBExp<C, V>, KBExp<C, V>> r) {
+		forget(r);
+		Ridx.remove(r.first, r);
+		Rpairs.remove(r.first, r.second, r);
+		indexSubterms(Rsub, r, false);
+		indexSubterms(RsubRhs, r.reverse(), false);
+		bornR.remove(r);
+		unshift(r);
+	}
+	
+	/**
+	 * Bounds the normal forms kept across steps.
+	 * 
+	 * @param max the most normal forms to keep, for each of the two caches
+	 * @param fifo evict the oldest normal form rather than the least recently used one
+	 */
+	public void setNormalFormCache(int max, boolean fifo) {
+		nfR = new KBNormalForms<>(max, fifo, () -> version, (e, since) -> stale(e, since, false));
+		nfER = new KBNormalForms<>(max, fifo, () -> version, (e, since) -> stale(e, since, true));
+	}
+	
+	/**
+	 * Changes how the next equation is picked from E.
+	 * 
+	 * @param weight the weight of an equation, e.g. KBPassive.symbolCount(), or null for first-in first-out
+	 * @param ageRatio pick the oldest equation every ageRatio picks, or never if 0
+	 * @param orientableFirst prefer orientable equations 
+	 */
+	public void setSelection(ToIntFunction<Pair<KBExp<C, V>, KBExp<C, V>>> weight, int ageRatio, boolean orientableFirst) {
+		KBPassive<C, V> E0 = new KBPassive<>(this::orientable, weight, ageRatio, orientableFirst);
+		E0.addAll(E);
+		E = E0;
+	}
+	
+	/**
+	 * Runs the independent parts of each step on pool, or sequentially if pool is null.  Completion
+	 * is deterministic either way: the same rules are added in the same order.
+	 */
+	public void setParallel(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+	
+	/**
+	 * Reports the metrics of each step to listener, or stops reporting if null.
+	 */
+	public void setListener(KBListener listener) {
+		this.listener = listener;
+	}
+	
+	//the start of a measured phase
+	private long now() {
+		return stats == null ? 0 : System.nanoTime();
+	}
+	
+	private void count(Counter c, long n) {
+		KBStats s = stats;
+		if (s != null) {
+			s.add(c, n);
 		}
 	}
 	
-	protected static <X> void addFront(List<X> X, X x) {
-		if (!X.contains(x)) {
-			X.add(0, x);
+	protected void addE(Pair<KBExp<C, V>, KBExp<C, V>> e0) {
+		Pair<KBExp<C, V>, KBExp<C, V>> e = canonical(e0);
+		if (E.add(e)) {
+			indexE(e, true);
+			log(() -> removeE(e));
 		}
 	}
 	
-	protected static <X> void addAll(Collection<X> X, Collection<X> x) {
-		for (X xx : x) {
-			add(X, xx);
+	protected void addFrontE(Pair<KBExp<C, V>, KBExp<C, V>> e0) {
+		Pair<KBExp<C, V>, KBExp<C, V>> e = canonical(e0);
+		if (E.addFront(e)) {
+			indexE(e, true);
+			log(() -> removeE(e));
 		}
 	}
-
-	protected void sortByStrLen(List<Pair<KBExp<C,V>, KBExp<C,V>>> l) {
-		if (!unfailing) {
-			l.sort(ToStringComparator);
+	
+	private void restoreE(Pair<KBExp<C, V>, KBExp<C, V>> e, long age, long seq) {
+		if (E.restore(e, age, seq)) {
+			indexE(e, true);
+			log(() -> removeE(e));
+		}
+	}
+	
+	protected void addAllE(Collection<Pair<KBExp<C, V>, KBExp<C, V>>> es) {
+		for (Pair<KBExp<C, V>, KBExp<C, V>> e : es) {
+			addE(e);
+		}
+	}
+	
+	protected void removeE(Pair<KBExp<C, V>, KBExp<C, V>> e) {
+		if (!E.contains(e)) {
+			return;
+		}
+		long age = E.age(e), seq = E.seq(e);
+		E.remove(e);
+		indexE(e, false);
+		log(() -> restoreE(e, age, seq));
+	}
+	
+	//replaces old by e, which takes the place of old in the selection and iteration orders
+	protected void replaceE(Pair<KBExp<C, V>, KBExp<C, V>> old, Pair<KBExp<C, V>, KBExp<C, V>> e) {
+		if (!E.contains(old)) {
+			addE(e);
+			return;
+		}
+		long age = E.age(old), seq = E.seq(old);
+		removeE(old);
+		restoreE(canonical(e), age, seq);
+	}
+	
+	protected void retainE(Collection<Pair<KBExp<C, V>, KBExp<C, V>>> keep) {
+		Set<Pair<KBExp<C, V>, KBExp<C, V>>> keep0 = new HashSet<>(keep);
+		Iterator<Pair<KBExp<C, V>, KBExp<C, V>>> it = E.iterator();
+		while (it.hasNext()) {
+			Pair<KBExp<C, V>, KBExp<C, V>> e = it.next();
+			if (!keep0.contains(e)) {
+				long age = E.age(e), seq = E.seq(e);
+				it.remove();
+				indexE(e, false);
+				log(() -> restoreE(e, age, seq));
+			}
+		}
+	}
+	
+	//called once e has been added to E, or removed from it
+	private void indexE(Pair<KBExp<C, V>, KBExp<C, V>> e, boolean add) {
+		Pair<KBExp<C, V>, KBExp<C, V>> e2 = e.reverse();
+		if (add) {
+			Epairs.put(e.first, e.second, e);
 		} else {
-			List<Pair<KBExp<C,V>, KBExp<C,V>>> unorientable = new LinkedList<>();
-			List<Pair<KBExp<C,V>, KBExp<C,V>>> orientable = new LinkedList<>();
-			for (Pair<KBExp<C, V>, KBExp<C, V>> k : l) {
-				if (orientable(k)) {
-					orientable.add(k);
-				} else {
-					unorientable.add(k);
-				}
+			Epairs.remove(e.first, e.second, e);
+			unshift(e);
+			forget(e);
+		}
+		//e and e2 may both be in E, and then share the entries below, which are made when the first
+		//of them is added and dropped when the last is removed
+		if (!e.equals(e2) && E.contains(e2)) {
+			return;
+		}
+		if (add) {
+			Eidx.put(e.first, e);
+			Eidx.put(e2.first, e2);
+			if (unfailing) {
+				boolean lr = gt.apply(e), rl = gt.apply(e2);
+				Eorient.put(e, orientation(e, lr, rl));
+				Eorient.put(e2, orientation(e2, rl, lr));
+				reducers.add(e);
+				bornE.put(e, ++version);
+				bornE.put(e2, version);
 			}
-			orientable.sort(ToStringComparator);
-			l.clear();
-			l.addAll(orientable);
-			l.addAll(unorientable);
+		} else {
+			Eidx.remove(e.first, e);
+			Eidx.remove(e2.first, e2);
+			Eorient.remove(e);
+			Eorient.remove(e2);
+			bornE.remove(e);
+			bornE.remove(e2);
 		}
+		indexSubterms(Esub, e, add);
+		indexSubterms(Esub, e2, add);
 	}
 	
-	@SuppressWarnings("deprecation")
-	public void complete() {
-		final String[] arr = new String[] { null };
-		Runnable r = new Runnable() {
-			@Override
-			public void run() {
-				try {
-					while (!step());
-				} catch (Exception ex) {
-					ex.printStackTrace();
-					arr[0] = ex.getMessage();
+	//a reduction ordering is closed under substitution, so if lhs > rhs every instance decreases, 
+	//and if rhs > lhs or rhs has variables lhs does not, no instance does
+	private static <C, V> Orientation orientation(Pair<KBExp<C, V>, KBExp<C, V>> e, boolean gt, boolean lt) {
+		if (gt) {
+			return Orientation.ALWAYS;
+		}
+		if (lt || !e.first.vars().containsAll(e.second.vars())) {
+			return Orientation.NEVER;
+		}
+		return Orientation.CHECK;
+	}
+	
+	//whether a rule, or with withE an equation of E used for rewriting, added after version since 
+	//can rewrite a subterm of e.  Removing rules and equations leaves normal forms irreducible
+	private boolean stale(KBExp<C, V> e, long since, boolean withE) {
+		for (KBExp<C, V> u : KBIndex.flatten(e)) {
+			if (!u.isVar) {
+				for (Pair<KBExp<C, V>, KBExp<C, V>> r : Ridx.generalizations(u)) {
+					Long born = bornR.get(r);
+					if ((born == null || born > since) && KBUnifier.findSubst(r.first, u) != null) {
+						return true;
+					}
 				}
 			}
-		};				
-		Thread t = new Thread(r);
-		t.start();
-		try {
-			t.join(iterations);
-			t.stop();
-		} catch (Exception ex) {
-			ex.printStackTrace();
-			throw new RuntimeException(ex.getMessage());
+			if (!withE || !unfailing) {
+				continue;
+			}
+			for (Pair<KBExp<C, V>, KBExp<C, V>> r : Eidx.generalizations(u)) {
+				//as in step1Eidx, and an equation not known to be older than since may be newer
+				Orientation o = Eorient.getOrDefault(r, Orientation.CHECK);
+				Long born = bornE.get(r);
+				if ((born != null && born <= since) || o == Orientation.NEVER) {
+					continue;
+				}
+				Map<V, KBExp<C, V>> s = KBUnifier.findSubst(r.first, u);
+				if (s == null) {
+					continue;
+				}
+				KBExp<C, V> rhs0 = r.second.subst(s);
+				if (o == Orientation.ALWAYS || (rhs0 != u && gt.apply(new Pair<>(u, rhs0)))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	//drops what the ground confluence check knows through eq, which is leaving E or R
+	private void forget(Pair<KBExp<C, V>, KBExp<C, V>> eq) {
+		if (confSeen.isEmpty()) {
+			return;
+		}
+		Pair<KBExp<C, V>, KBExp<C, V>> qe = eq.reverse();
+		confSeen.removeIf(x -> x.first.equals(eq) || x.second.equals(eq) || x.first.equals(qe) || x.second.equals(qe));
+		confCps.keySet().removeIf(x -> x.first.equals(eq) || x.second.equals(eq) || x.first.equals(qe) || x.second.equals(qe));
+		joined.values().removeIf(x -> x.contains(eq));
+	}
+	
+	private static <C, V> void indexSubterms(KBIndex<C, V, Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Integer>> idx, 
+			Pair<KBExp<C, V>, KBExp<C, V>> r, boolean add) {
+		KBExp<C, V>[] subs = KBIndex.flatten(r.first);
+		for (int p = 0; p < subs.length; p++) {
+			if (subs[p].isVar) {
+				continue;
+			}
+			if (add) {
+				idx.put(subs[p], new Pair<>(r, p));
+			} else {
+				idx.remove(subs[p], new Pair<>(r, p));
+			}
 		}
-		if (arr[0] != null) {
-			throw new RuntimeException(arr[0] + "\n\nLast state:\n\n" + printKB());			
+	}
+
+	protected static <X> void add(Collection<X> X, X x) {
+		if (!X.contains(x)) {
+			X.add(x);
+		}
+	}
+	
+
+	/**
+	 * Runs completion on the calling thread for at most iterations milliseconds.
+	 * 
+	 * @throws RuntimeException if a step fails or the system is not ground complete in time
+	 */
+	public void complete() {
+		try {
+			complete(iterations, 0, 0);
+		} catch (RuntimeException ex) {
+			throw new Failure(ex.getMessage(), this, ex);
 		}
 		if (!isCompleteGround) {
-			throw new RuntimeException("Not ground complete after iteration timeout.  Last state:\n\n" + printKB());
+			throw new Failure("Not ground complete after iteration timeout.", this, null);
 		} 
 	}
 	
-	@SuppressWarnings("unchecked")
-	protected static <C, V> boolean subsumes(Iterator<V> fresh, Pair<KBExp<C, V>, KBExp<C, V>> cand,
-			Pair<KBExp<C, V>, KBExp<C, V>> other) {
-		
-		Pair<KBExp<C, V>, KBExp<C, V>> candX = cand; 
+	/**
+	 * Runs completion on the calling thread until it is done or a budget runs out.  A step that
+	 * is interrupted, or that throws, is rolled back, so completion can be resumed from the
+	 * returned handle.  A budget that is not positive is unlimited.
+	 * 
+	 * @param millis wall-clock budget, checked between steps and during long reductions
+	 * @param steps maximum number of steps
+	 * @param maxPassive stop once E holds more than this many equations
+	 */
+	public KBCompletion<C, V> complete(long millis, int steps, int maxPassive) {
+		deadline = millis > 0 ? System.nanoTime() + millis * 1000000L : Long.MAX_VALUE;
+		running = true;
+		int taken = 0;
+		try {
+			for (;;) {
+				KBCompletion.Status stop = null;
+				if (cancelled) {
+					stop = KBCompletion.Status.CANCELLED;
+				} else if (steps > 0 && taken >= steps) {
+					stop = KBCompletion.Status.STEP_LIMIT;
+				} else if (maxPassive > 0 && E.size() > maxPassive) {
+					stop = KBCompletion.Status.PASSIVE_LIMIT;
+				} else if (System.nanoTime() > deadline) {
+					stop = KBCompletion.Status.TIMEOUT;
+				}
+				if (stop == null) {
+					try {
+						if (step()) {
+							stop = isComplete ? KBCompletion.Status.COMPLETE : KBCompletion.Status.GROUND_COMPLETE;
+						}
+					} catch (Stop ex) {
+						stop = ex.status;
+					}
+				}
+				if (stop != null) {
+					if (stop == KBCompletion.Status.CANCELLED) {
+						cancelled = false;
+					}
+					return new KBCompletion<>(this, stop, taken);
+				}
+				taken++;
+			}
+		} finally {
+			running = false;
+			deadline = Long.MAX_VALUE;
+		}
+	}
+	
+	/**
+	 * Asks a running complete to stop at the next check.  May be called from any thread.  
+	 * If completion is not running, the next run stops before its first step. 
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+	
+	//called during long computations of a step
+	protected void checkStop() {
+		if (!running) {
+			return;
+		}
+		if (cancelled) {
+			throw new Stop(KBCompletion.Status.CANCELLED);
+		}
+		if (System.nanoTime() > deadline) {
+			throw new Stop(KBCompletion.Status.TIMEOUT);
+		}
+	}
+	
+	private static class Stop extends RuntimeException {
+		private static final long serialVersionUID = 1L;
 		
-		if (!Collections.disjoint(candX.first.vars(), other.first.vars()) ||
-			!Collections.disjoint(candX.first.vars(), other.second.vars()) ||
-			!Collections.disjoint(candX.second.vars(), other.first.vars())||
-			!Collections.disjoint(candX.second.vars(), other.second.vars())) {	
-			candX = freshen(fresh, cand);
-		}
-		 
-		List<KBExp<C, V>> l = new LinkedList<>(); l.add(candX.first); l.add(candX.second);
-		KBApp<C, V> cand0 = new KBApp<C, V>((C) "", l);
-
-		List<KBExp<C, V>> r = new LinkedList<>(); r.add(other.first); r.add(other.second);
-		KBApp<C, V> other0 = new KBApp<C, V>((C) "", r);
+		private final KBCompletion.Status status;
+
+		private Stop(KBCompletion.Status status) {
+			super(status.toString(), null, false, false);
+			this.status = status;
+		}
+	}
+	
+	//prints the last state only if the message is asked for
+	private static class Failure extends RuntimeException {
+		private static final long serialVersionUID = 1L;
 		
-		Map<V, KBExp<C, V>> subst = KBUnifier.findSubst(other0, cand0);
+		private final KB<?, ?> kb;
+		private String msg;
+
+		private Failure(String msg, KB<?, ?> kb, Throwable cause) {
+			super(msg, cause);
+			this.kb = kb;
+		}
 		
-		return (subst != null);
+		@Override
+		public synchronized String getMessage() {
+			if (msg == null) {
+				msg = super.getMessage() + "\n\nLast state:\n\n" + kb.printKB();
+			}
+			return msg;
+		}
+	}
+
+	/**
+	 * @return true if cand is an instance of other, i.e. other.first and other.second match 
+	 * cand.first and cand.second under one substitution
+	 */
+	protected static <C, V> boolean subsumes(Pair<KBExp<C, V>, KBExp<C, V>> cand,
+			Pair<KBExp<C, V>, KBExp<C, V>> other) {
+		Map<V, KBExp<C, V>> s1 = KBUnifier.findSubst(other.first, cand.first);
+		if (s1 == null) {
+			return false;
+		}
+		Map<V, KBExp<C, V>> s2 = KBUnifier.findSubst(other.second, cand.second);
+		if (s2 == null) {
+			return false;
+		}
+		for (V v : s1.keySet()) {
+			KBExp<C, V> t = s2.get(v);
+			if (t != null && t != s1.get(v)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return true if cand is an instance of an equation in idx other than except 
+	 */
+	protected boolean subsumedBy(KBIndex<C, V, Pair<KBExp<C, V>, KBExp<C, V>>> idx, 
+			Pair<KBExp<C, V>, KBExp<C, V>> cand, Pair<KBExp<C, V>, KBExp<C, V>> except) {
+		return subsumer(idx, cand, except) != null;
+	}
+	
+	/**
+	 * @return an equation in idx other than except that cand is an instance of, or null
+	 */
+	protected Pair<KBExp<C, V>, KBExp<C, V>> subsumer(KBIndex<C, V, Pair<KBExp<C, V>, KBExp<C, V>>> idx, 
+			Pair<KBExp<C, V>, KBExp<C, V>> cand, Pair<KBExp<C, V>, KBExp<C, V>> except) {
+		for (Pair<KBExp<C, V>, KBExp<C, V>> e : idx.generalizations(cand.first, cand.second)) {
+			if (!e.equals(except) && subsumes(cand, e)) {
+				return e;
+			}
+		}
+		return null;
 	}
 	
 	protected List<Pair<KBExp<C, V>, KBExp<C, V>>> filterSubsumed(
 			Collection<Pair<KBExp<C, V>, KBExp<C, V>>> CPX) {
+		List<Pair<KBExp<C, V>, KBExp<C, V>>> cands = new ArrayList<>(CPX);
+		List<Boolean> subsumed = map(cands, cand -> subsumedBy(Epairs, cand, null) || subsumedBy(Rpairs, cand, null));
 		List<Pair<KBExp<C, V>, KBExp<C, V>>> CP = new LinkedList<>();
-		outer: for (Pair<KBExp<C, V>, KBExp<C, V>> cand : CPX) {
-			for (Pair<KBExp<C, V>, KBExp<C, V>> e : E) {
-				if (subsumes(fresh, cand, e)) {
-					continue outer; 
-				}
+		for (int i = 0; i < cands.size(); i++) {
+			if (!subsumed.get(i)) {
+				CP.add(cands.get(i));
 			}
-			CP.add(cand);
 		}
 		return CP;
 	}
@@ -216,31 +678,18 @@ public class KB<C, V> {
 	protected List<Pair<KBExp<C, V>, KBExp<C, V>>> filterSubsumedBySelf(
 			Collection<Pair<KBExp<C, V>, KBExp<C, V>>> CPX) {
 		List<Pair<KBExp<C, V>, KBExp<C, V>>> CP = new LinkedList<>(CPX);
+		KBIndex<C, V, Pair<KBExp<C, V>, KBExp<C, V>>> idx = new KBIndex<>();
+		for (Pair<KBExp<C, V>, KBExp<C, V>> e : CP) {
+			idx.put(e.first, e.second, e);
+		}
 		
+		//subsumption by e.reverse() is subsumption of cand.reverse() by e
 		Iterator<Pair<KBExp<C, V>, KBExp<C, V>>> it = CP.iterator();
 		while (it.hasNext()) {
 			Pair<KBExp<C, V>, KBExp<C, V>> cand = it.next();
-			for (Pair<KBExp<C, V>, KBExp<C, V>> e : CP) {
-				if (cand.equals(e)) {
-					continue;
-				}
-				if (subsumes(fresh, cand, e)) {
-					it.remove();
-					break;
-				}
-				if (subsumes(fresh, cand.reverse(), e)) {
-					it.remove();
-					break;
-				}
-				if (subsumes(fresh, cand, e.reverse())) {
-					it.remove();
-					break;
-				}
-				//TODO: this one redundant?
-				if (subsumes(fresh, cand.reverse(), e.reverse())) {
-					it.remove();
-					break;
-				}
+			if (subsumedBy(idx, cand, cand) || subsumedBy(idx, cand.reverse(), cand)) {
+				it.remove();
+				idx.remove(cand.first, cand.second, cand);
 			}
 		}
 		return CP;
@@ -248,26 +697,45 @@ public class KB<C, V> {
 	
 	//is also compose2
 	protected void compose() {
-		Pair<KBExp<C, V>, KBExp<C, V>> to_remove = null;
-		Pair<KBExp<C, V>, KBExp<C, V>> to_add = null;
-		do {
-			to_remove = null;
-			to_add = null;
-			for (Pair<KBExp<C, V>, KBExp<C, V>> r : R) {
-				Set<Pair<KBExp<C, V>, KBExp<C, V>>> R0 = new HashSet<>(R);
-				R0.remove(r);
-				KBExp<C, V> new_rhs = red(null, E, R0, r.second);
-				if (!new_rhs.equals(r.second)) {
-					to_remove = r;
-					to_add = new Pair<>(r.first, new_rhs);
-					break;
+		Set<Pair<KBExp<C, V>, KBExp<C, V>>> todo = new LinkedHashSet<>();
+		for (Pair<KBExp<C, V>, KBExp<C, V>> x : reducers) {
+			if (R.contains(x)) {
+				todo.add(x);
+				rhsReducibleBy(todo, x);
+			} else if (E.contains(x)) {
+				for (Pair<KBExp<C, V>, KBExp<C, V>> y : Arrays.asList(x, x.reverse())) {
+					if (Eorient.get(y) != Orientation.NEVER) {
+						rhsReducibleBy(todo, y);
+					}
 				}
 			}
-			if (to_remove != null) {
-				R.remove(to_remove);
-				R.add(to_add);
+		}
+		
+		//replacing a rule keeps its left-hand side, so no other rule becomes reducible by it.  r stays 
+		//in Ridx: under a simplification ordering no term below r.second contains an instance of r.first,
+		//so r would never apply, and the normal forms found are normal under all of R for nfER
+		for (Pair<KBExp<C, V>, KBExp<C, V>> r : todo) {
+			if (!R.contains(r)) {
+				continue;
+			}
+			KBExp<C, V> new_rhs = red(nfER, E, Ridx, r.second);
+			if (!new_rhs.equals(r.second)) {
+				removeRule(r);
+				addRule(new Pair<>(r.first, new_rhs));
+				count(Counter.RULES_COMPOSED, 1);
 			}
-		} while (to_remove != null);
+		}
+		
+		List<Pair<KBExp<C, V>, KBExp<C, V>>> old = reducers;
+		reducers = new ArrayList<>();
+		log(() -> reducers.addAll(old));
+	}
+	
+	//adds the rules whose right-hand sides may contain an instance of the left-hand side of ab
+	private void rhsReducibleBy(Set<Pair<KBExp<C, V>, KBExp<C, V>>> todo, Pair<KBExp<C, V>, KBExp<C, V>> ab) {
+		for (Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Integer> rp : RsubRhs.instances(ab.first)) {
+			todo.add(rp.first.reverse());
+		}
 	}
 	
 	// TODO For this to be a true semi-decision procedure, open terms should first be skolemized
@@ -286,17 +754,28 @@ public class KB<C, V> {
 		return eq(lhs, rhs);
 	} 
 	
+	/**
+	 * @return an immutable copy of R, and of E if the system is only ground complete, whose 
+	 * normal forms may be asked for from many threads
+	 */
+	public KBSystem<C, V> snapshot() {
+		if (!isCompleteGround) {
+			throw new RuntimeException("Cannot snapshot ground incomplete system.");
+		}
+		return new KBSystem<>(R, unfailing ? E : Collections.emptyList(), order, isComplete, red_its);
+	}
+	
 	public KBExp<C, V> nf(KBExp<C, V> e) {
 		if (e.vars().isEmpty()) {
 			if (!isCompleteGround) {
 				throw new RuntimeException("Cannot find ground normal form for ground incomplete system.");
 			}
-			return red(null, E, R, e);
+			return red(nfER, E, Ridx, e);
 		}
 		if (!isComplete) {
 			throw new RuntimeException("Cannot find normal form for incomplete system.");
 		}
-		return red(null, E, R, e);
+		return red(nfER, E, Ridx, e);
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -314,12 +793,12 @@ public class KB<C, V> {
 			Map<String, KBExp<String, String>> m = new HashMap<>();
 			for (String v : r.first.vars()) {
 				if (v.startsWith("_v") && !m.containsKey(v)) {
-					m.put(v, new KBVar<String, String>("v" + i++));
+					m.put(v, KBExp.mkVar("v" + i++));
 				}
 			}
 			for (String v : r.second.vars()) {
 				if (v.startsWith("_v") && !m.containsKey(v)) {
-					m.put(v, new KBVar<String, String>("v" + i++));
+					m.put(v, KBExp.mkVar("v" + i++));
 				}
 			}
 			E0.add(stripOuter(r.first.subst(m).toString()) + " = " + stripOuter(r.second.subst(m).toString()));
@@ -337,12 +816,12 @@ public class KB<C, V> {
 			Map<String, KBExp<String, String>> m = new HashMap<>();
 			for (String v : r.first.vars()) {
 				if (v.startsWith("_v") && !m.containsKey(v)) {
-					m.put(v, new KBVar<String, String>("v" + i++));
+					m.put(v, KBExp.mkVar("v" + i++));
 				}
 			}
 			for (String v : r.second.vars()) {
 				if (v.startsWith("_v") && !m.containsKey(v)) {
-					m.put(v, new KBVar<String, String>("v" + i++));
+					m.put(v, KBExp.mkVar("v" + i++));
 				}
 			}
 			R0.add(stripOuter(r.first.subst(m).toString()) + " -> " + stripOuter(r.second.subst(m).toString()));
@@ -364,68 +843,80 @@ public class KB<C, V> {
 		return s;
 	}
 
+	/**
+	 * Innermost normalization, as in KBInnermost, with the rules in R and ordered rewriting with
+	 * the equations in E.
+	 * 
+	 * @param cache normal forms under E and R, or null.  Only valid while E and R are unchanged.
+	 */
 	protected KBExp<C, V> red(Map<KBExp<C,V>, KBExp<C,V>> cache, 
-			List<Pair<KBExp<C, V>, KBExp<C, V>>> E,
-			Set<Pair<KBExp<C, V>, KBExp<C, V>>> R,
+			Collection<Pair<KBExp<C, V>, KBExp<C, V>>> E,
+			KBIndex<C, V, Pair<KBExp<C, V>, KBExp<C, V>>> R,
 			KBExp<C, V> e) {
-		int i = 0;
-		KBExp<C, V> orig = e;
-		for (;;) {
-			i++;
-			if (i > red_its) {
-				throw new RuntimeException("Reduction taking too long: " + orig + " goes to " + e + " under\n\neqs:" + sep(E,"\n") + "\n\nreds:"+ sep(R,"\n"));
-			}
-			KBExp<C, V> e0 = step(cache, fresh, E, R, e);
-			if (e.equals(e0)) {
-				return e;
-			}
-			e = e0;
-		}
+		return red(cache == null ? new HashMap<>() : cache, null, E, R, e);
 	}
 	
-	protected KBExp<C, V> step(Map<KBExp<C,V>, KBExp<C,V>> cache, Iterator<V> fresh,
-			List<Pair<KBExp<C, V>, KBExp<C, V>>> E, Set<Pair<KBExp<C, V>, KBExp<C, V>>> R, KBExp<C, V> ee) {
-		if (ee.isVar) {
-			return step1(cache, fresh, E, R, ee); 
-		} else {
-			KBApp<C, V> e = ee.getApp();
-			List<KBExp<C, V>> args0 = new LinkedList<>();
-			for (KBExp<C, V> arg : e.args) {
-				args0.add(step(cache, fresh, E, R, arg));
+	/**
+	 * As red, also adding to used the members of E and R that rewrite steps are taken with.  
+	 * Only sound if cache was filled by this method with the same used.
+	 */
+	protected KBExp<C, V> red(Map<KBExp<C,V>, KBExp<C,V>> cache, Set<Pair<KBExp<C, V>, KBExp<C, V>>> used,
+			Collection<Pair<KBExp<C, V>, KBExp<C, V>>> E,
+			KBIndex<C, V, Pair<KBExp<C, V>, KBExp<C, V>>> R,
+			KBExp<C, V> e) {
+		return KBInnermost.nf(cache, new KBInnermost.Step<C, V>() {
+			@Override
+			public KBExp<C, V> step1(KBExp<C, V> x) {
+				return KB.this.step1(E, R, x, used);
 			}
-			KBApp<C, V> ret = new KBApp<>(e.f, args0);
-			return step1(cache, fresh, E, R, ret);
-		} 
+
+			@Override
+			public void taken() {
+				count(Counter.REWRITES, 1);
+				if ((++polls & 255) == 0) {
+					checkStop();
+				}
+			}
+
+			@Override
+			public String under() {
+				return " under\n\neqs:" + sep(E,"\n") + "\n\nreds:"+ sep(KB.this.R,"\n");
+			}
+		}, red_its, e);
 	}
 	
-
 	protected void simplify() {
-		Map<KBExp<C,V>, KBExp<C,V>> cache = new HashMap<>();  //helped 2x during tests
+		Map<KBExp<C,V>, KBExp<C,V>> cache = nfR;  //helped 2x during tests, more when kept across steps
 
-		List<Pair<KBExp<C, V>, KBExp<C, V>>> newE = new LinkedList<>();
-		for (Pair<KBExp<C, V>, KBExp<C, V>> e : E) {
-			KBExp<C, V>	lhs_red = red(cache, new LinkedList<>(), R, e.first);
-			KBExp<C, V> rhs_red = red(cache, new LinkedList<>(), R, e.second);
-			if (!lhs_red.equals(rhs_red)) {
-				add(newE, new Pair<>(lhs_red, rhs_red));
+		for (Pair<KBExp<C, V>, KBExp<C, V>> e : new ArrayList<>(E)) {
+			KBExp<C, V>	lhs_red = red(cache, Collections.emptyList(), Ridx, e.first);
+			KBExp<C, V> rhs_red = red(cache, Collections.emptyList(), Ridx, e.second);
+			if (lhs_red.equals(rhs_red)) {
+				removeE(e);
+				count(Counter.CPS_JOINED, 1);
+			} else if (!lhs_red.equals(e.first) || !rhs_red.equals(e.second)) {
+				replaceE(e, new Pair<>(lhs_red, rhs_red));
 			}
 		}
-		E = newE;
 	}
 
 	//is not collapse2
 	protected void collapseBy(Pair<KBExp<C, V>, KBExp<C, V>> ab) {
-		Set<Pair<KBExp<C, V>, KBExp<C, V>>> AB = Collections.singleton(ab);
-		Iterator<Pair<KBExp<C, V>, KBExp<C, V>>> it = R.iterator();
-		while (it.hasNext()) {
-		Pair<KBExp<C, V>, KBExp<C, V>> r = it.next();
+		KBIndex<C, V, Pair<KBExp<C, V>, KBExp<C, V>>> AB = new KBIndex<>();
+		AB.put(ab.first, ab);
+		Set<Pair<KBExp<C, V>, KBExp<C, V>>> rs = new LinkedHashSet<>();
+		for (Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Integer> rp : Rsub.instances(ab.first)) {
+			rs.add(rp.first);
+		}
+		for (Pair<KBExp<C, V>, KBExp<C, V>> r : rs) {
 			if (r.equals(ab)) {
 				continue;
 			}
-			KBExp<C, V> lhs = red(null, new LinkedList<>(), AB, r.first);
+			KBExp<C, V> lhs = red(null, Collections.emptyList(), AB, r.first);
 			if (!r.first.equals(lhs)) {
-				addFront(E, new Pair<>(lhs, r.second));	
-				it.remove();
+				addFrontE(new Pair<>(lhs, r.second));	
+				removeRule(r);
+				count(Counter.RULES_COLLAPSED, 1);
 			} 
 		}
 	}
@@ -433,114 +924,226 @@ public class KB<C, V> {
 	protected Set<Pair<KBExp<C, V>, KBExp<C, V>>> allcps2(
 			Set<Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Pair<KBExp<C, V>, KBExp<C, V>>>> seen,
 			Pair<KBExp<C, V>, KBExp<C, V>> ab) {
-		Set<Pair<KBExp<C, V>, KBExp<C, V>>> ret = new HashSet<>();
+		Map<Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Pair<KBExp<C, V>, KBExp<C, V>>>, Supplier<Set<Pair<KBExp<C, V>, KBExp<C, V>>>>> jobs = new LinkedHashMap<>();
+		planCps2(jobs, seen, ab);
+		return union(jobs.values());
+	}
+	
+	private void planCps2(Map<Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Pair<KBExp<C, V>, KBExp<C, V>>>, Supplier<Set<Pair<KBExp<C, V>, KBExp<C, V>>>>> jobs,
+			Set<Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Pair<KBExp<C, V>, KBExp<C, V>>>> seen,
+			Pair<KBExp<C, V>, KBExp<C, V>> ab) {
 
 		Set<Pair<KBExp<C, V>, KBExp<C, V>>> E0 = new HashSet<>(E);
 		E0.add(ab);
 		E0.add(ab.reverse());
 		Pair<KBExp<C, V>, KBExp<C, V>> ba = ab.reverse();
+		
+		Map<Pair<KBExp<C, V>, KBExp<C, V>>, List<Integer>> abInto = overlapsInto(Esub, ab);
+		Map<Pair<KBExp<C, V>, KBExp<C, V>>, List<Integer>> abFrom = overlapsFrom(Eidx, ab);
+		Map<Pair<KBExp<C, V>, KBExp<C, V>>, List<Integer>> baInto = overlapsInto(Esub, ba);
+		Map<Pair<KBExp<C, V>, KBExp<C, V>>, List<Integer>> baFrom = overlapsFrom(Eidx, ba);
+		if (!E.contains(ab) && !E.contains(ba)) {
+			//ab is not indexed, so overlaps with itself are tried at every position
+			for (Map<Pair<KBExp<C, V>, KBExp<C, V>>, List<Integer>> m : Arrays.asList(abInto, abFrom, baInto, baFrom)) {
+				m.put(ab, null);
+				m.put(ba, null);
+			}
+		}
+		
 		for (Pair<KBExp<C, V>, KBExp<C, V>> gd : E0) {
-			Set<Pair<KBExp<C, V>, KBExp<C, V>>> s;
 			Pair<KBExp<C, V>, KBExp<C, V>> dg = gd.reverse();
 
-			if (!seen.contains(new Pair<>(ab, gd))) {
-				s = cp(ab, gd);
-				ret.addAll(s);
-				seen.add(new Pair<>(ab, gd));
-			}
-			if (!seen.contains(new Pair<>(gd, ab))) {
-				s = cp(gd, ab);
-				ret.addAll(s);
-				seen.add(new Pair<>(gd, ab));
-			}
-			if (!seen.contains(new Pair<>(ab, dg))) {
-				s = cp(ab, dg);
-				ret.addAll(s);
-				seen.add(new Pair<>(ab, dg));
-			}
-			if (!seen.contains(new Pair<>(dg, ab))) {
-				s = cp(dg, ab);
-				ret.addAll(s);
-				seen.add(new Pair<>(dg, ab));
-			}
+			overlap(jobs, seen, ab, gd, abFrom, gd);
+			overlap(jobs, seen, gd, ab, abInto, gd);
+			overlap(jobs, seen, ab, dg, abFrom, dg);
+			overlap(jobs, seen, dg, ab, abInto, dg);
 			////
-			if (!seen.contains(new Pair<>(ba, gd))) {
-				s = cp(ba, gd);
-				ret.addAll(s);
-				seen.add(new Pair<>(ba, gd));
-			}
-			if (!seen.contains(new Pair<>(gd, ba))) {
-				s = cp(gd, ba);
-				ret.addAll(s);
-				seen.add(new Pair<>(gd, ba));
-			}
-			if (!seen.contains(new Pair<>(ba, dg))) {
-				s = cp(ba, dg);
-				ret.addAll(s);
-				seen.add(new Pair<>(ba, dg));
-			}
-			if (!seen.contains(new Pair<>(dg, ba))) {
-				s = cp(dg, ba);
-				ret.addAll(s);
-				seen.add(new Pair<>(dg, ba));
-			}
+			overlap(jobs, seen, ba, gd, baFrom, gd);
+			overlap(jobs, seen, gd, ba, baInto, gd);
+			overlap(jobs, seen, ba, dg, baFrom, dg);
+			overlap(jobs, seen, dg, ba, baInto, dg);
 		}
 		
+		abInto = overlapsInto(Rsub, ab);
+		abFrom = overlapsFrom(Ridx, ab);
+		baInto = overlapsInto(Rsub, ba);
+		baFrom = overlapsFrom(Ridx, ba);
 		for (Pair<KBExp<C, V>, KBExp<C, V>> gd : R) {
-			Set<Pair<KBExp<C, V>, KBExp<C, V>>> s;
-
-			if (!seen.contains(new Pair<>(ab, gd))) {
-				s = cp(ab, gd);
-				ret.addAll(s);
-				seen.add(new Pair<>(ab, gd));
-			}
-			if (!seen.contains(new Pair<>(gd, ab))) {
-				s = cp(gd, ab);
-				ret.addAll(s);
-				seen.add(new Pair<>(gd, ab));
-			}
+			overlap(jobs, seen, ab, gd, abFrom, gd);
+			overlap(jobs, seen, gd, ab, abInto, gd);
 			////
-			if (!seen.contains(new Pair<>(ba, gd))) {
-				s = cp(ba, gd);
-				ret.addAll(s);
-				seen.add(new Pair<>(ba, gd));
-			}
-			if (!seen.contains(new Pair<>(gd, ba))) {
-				s = cp(gd, ba);
-				ret.addAll(s);
-				seen.add(new Pair<>(gd, ba));
-			}
+			overlap(jobs, seen, ba, gd, baFrom, gd);
+			overlap(jobs, seen, gd, ba, baInto, gd);
 		}
-		return ret;
 	}
 
 	protected Set<Pair<KBExp<C, V>, KBExp<C, V>>> allcps(
 			Set<Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Pair<KBExp<C, V>, KBExp<C, V>>>> seen,
 			Pair<KBExp<C, V>, KBExp<C, V>> ab) {
-		Set<Pair<KBExp<C, V>, KBExp<C, V>>> ret = new HashSet<>();
+		Map<Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Pair<KBExp<C, V>, KBExp<C, V>>>, Supplier<Set<Pair<KBExp<C, V>, KBExp<C, V>>>>> jobs = new LinkedHashMap<>();
+		planCps(jobs, seen, ab);
+		return union(jobs.values());
+	}
+	
+	private void planCps(Map<Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Pair<KBExp<C, V>, KBExp<C, V>>>, Supplier<Set<Pair<KBExp<C, V>, KBExp<C, V>>>>> jobs,
+			Set<Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Pair<KBExp<C, V>, KBExp<C, V>>>> seen,
+			Pair<KBExp<C, V>, KBExp<C, V>> ab) {
+		Map<Pair<KBExp<C, V>, KBExp<C, V>>, List<Integer>> into = overlapsInto(Rsub, ab);
+		Map<Pair<KBExp<C, V>, KBExp<C, V>>, List<Integer>> from = overlapsFrom(Ridx, ab);
+		if (!R.contains(ab)) {
+			into.put(ab, null);
+			from.put(ab, null);
+		}
 		for (Pair<KBExp<C, V>, KBExp<C, V>> gd : R) {
-			Set<Pair<KBExp<C, V>, KBExp<C, V>>> s;
-			if (!seen.contains(new Pair<>(ab, gd))) {
-				s = cp( ab, gd);
-				ret.addAll(s);
-				seen.add(new Pair<>(ab, gd));
+			overlap(jobs, seen, ab, gd, from, gd);
+
+			overlap(jobs, seen, gd, ab, into, gd);
+		}
+	}
+	
+	/**
+	 * Plans the critical pairs of ab0 into gd0, as in cp, unless seen already.  The plan is made 
+	 * sequentially and run by union, so the pairs marked seen do not depend on scheduling.
+	 */
+	private void overlap(Map<Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Pair<KBExp<C, V>, KBExp<C, V>>>, Supplier<Set<Pair<KBExp<C, V>, KBExp<C, V>>>>> jobs,
+			Set<Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Pair<KBExp<C, V>, KBExp<C, V>>>> seen,
+			Pair<KBExp<C, V>, KBExp<C, V>> gd0, Pair<KBExp<C, V>, KBExp<C, V>> ab0,
+			Map<Pair<KBExp<C, V>, KBExp<C, V>>, List<Integer>> positions, Pair<KBExp<C, V>, KBExp<C, V>> key) {
+		Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Pair<KBExp<C, V>, KBExp<C, V>>> k = new Pair<>(gd0, ab0);
+		if (seen.add(k)) {
+			jobs.put(k, () -> cp(gd0, ab0, positions, key));
+		}
+	}
+	
+	private Set<Pair<KBExp<C, V>, KBExp<C, V>>> union(Collection<Supplier<Set<Pair<KBExp<C, V>, KBExp<C, V>>>>> jobs) {
+		Set<Pair<KBExp<C, V>, KBExp<C, V>>> ret = new HashSet<>();
+		for (Set<Pair<KBExp<C, V>, KBExp<C, V>>> s : map(new ArrayList<>(jobs), Supplier::get)) {
+			ret.addAll(s);
+		}
+		return ret;
+	}
+	
+	/**
+	 * @return f applied to each of xs, in order.  Runs on pool if there is one, in which case f 
+	 * may only read E and R.
+	 */
+	protected <X, Y> List<Y> map(List<X> xs, Function<X, Y> f) {
+		return map(pool, xs, f);
+	}
+	
+	/**
+	 * @return f applied to each of xs, in order, on pool if it is not null
+	 */
+	@SuppressWarnings("unchecked")
+	static <X, Y> List<Y> map(ForkJoinPool pool, List<X> xs, Function<X, Y> f) {
+		if (pool == null || xs.size() < 2) {
+			List<Y> ret = new ArrayList<>(xs.size());
+			for (X x : xs) {
+				ret.add(f.apply(x));
 			}
+			return ret;
+		}
+		Object[] ret = new Object[xs.size()];
+		int grain = Math.max(1, xs.size() / (8 * pool.getParallelism()));
+		pool.invoke(new MapTask<>(xs, f, ret, 0, xs.size(), grain));
+		return (List<Y>) Arrays.asList(ret);
+	}
+	
+	private static class MapTask<X, Y> extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final List<X> xs;
+		private final Function<X, Y> f;
+		private final Object[] ret;
+		private final int lo, hi, grain;
+
+		private MapTask(List<X> xs, Function<X, Y> f, Object[] ret, int lo, int hi, int grain) {
+			this.xs = xs;
+			this.f = f;
+			this.ret = ret;
+			this.lo = lo;
+			this.hi = hi;
+			this.grain = grain;
+		}
+
+		@Override
+		protected void compute() {
+			if (hi - lo <= grain) {
+				for (int i = lo; i < hi; i++) {
+					ret[i] = f.apply(xs.get(i));
+				}
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new MapTask<>(xs, f, ret, lo, mid, grain), new MapTask<>(xs, f, ret, mid, hi, grain));
+		}
+	}
+	
+	/**
+	 * @return for each indexed gd, the positions of gd.first that ab.first may unify with
+	 */
+	protected Map<Pair<KBExp<C, V>, KBExp<C, V>>, List<Integer>> overlapsInto(
+			KBIndex<C, V, Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Integer>> subs, Pair<KBExp<C, V>, KBExp<C, V>> ab) {
+		Map<Pair<KBExp<C, V>, KBExp<C, V>>, List<Integer>> ret = new HashMap<>();
+		for (Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Integer> gdp : subs.unifiable(ab.first)) {
+			ret.computeIfAbsent(gdp.first, x -> new LinkedList<>()).add(gdp.second);
+		}
+		return ret;
+	}
 
-			if (!seen.contains(new Pair<>(gd, ab))) {
-				s = cp(gd, ab);
-				ret.addAll(s);
-				seen.add(new Pair<>(gd, ab));
+	/**
+	 * @return for each indexed gd, the positions of ab.first that gd.first may unify with
+	 */
+	protected Map<Pair<KBExp<C, V>, KBExp<C, V>>, List<Integer>> overlapsFrom(
+			KBIndex<C, V, Pair<KBExp<C, V>, KBExp<C, V>>> lhss, Pair<KBExp<C, V>, KBExp<C, V>> ab) {
+		Map<Pair<KBExp<C, V>, KBExp<C, V>>, List<Integer>> ret = new HashMap<>();
+		KBExp<C, V>[] subs = KBIndex.flatten(ab.first);
+		for (int p = 0; p < subs.length; p++) {
+			if (subs[p].isVar) {
+				continue;
+			}
+			for (Pair<KBExp<C, V>, KBExp<C, V>> gd : lhss.unifiable(subs[p])) {
+				ret.computeIfAbsent(gd, x -> new LinkedList<>()).add(p);
 			}
 		}
 		return ret;
 	}
+	
+	/**
+	 * Critical pairs of ab0 into gd0 at the positions recorded for key: all positions if 
+	 * recorded as null, none if key is absent.  The variables of gd0 and ab0 must be in bank 0.
+	 */
+	protected Set<Pair<KBExp<C, V>, KBExp<C, V>>> cp(Pair<KBExp<C, V>, KBExp<C, V>> gd0, Pair<KBExp<C, V>, KBExp<C, V>> ab0,
+			Map<Pair<KBExp<C, V>, KBExp<C, V>>, List<Integer>> positions, Pair<KBExp<C, V>, KBExp<C, V>> key) {
+		if (!positions.containsKey(key)) {
+			return Collections.emptySet();
+		}
+		return cp(gd0, ab0, positions.get(key));
+	}
+
+	protected Set<Pair<KBExp<C, V>, KBExp<C, V>>> cp(Pair<KBExp<C, V>, KBExp<C, V>> gd0, Pair<KBExp<C, V>, KBExp<C, V>> ab0) {
+		return cp(gd0, ab0, null);
+	}
 
-	protected  Set<Pair<KBExp<C, V>, KBExp<C, V>>> cp(Pair<KBExp<C, V>, KBExp<C, V>> gd0, Pair<KBExp<C, V>, KBExp<C, V>> ab0) {
-		Pair<KBExp<C, V>, KBExp<C, V>> ab = freshen(fresh, ab0);
-		Pair<KBExp<C, V>, KBExp<C, V>> gd = freshen(fresh, gd0);
+	protected Set<Pair<KBExp<C, V>, KBExp<C, V>>> cp(Pair<KBExp<C, V>, KBExp<C, V>> gd0, Pair<KBExp<C, V>, KBExp<C, V>> ab0,
+			Collection<Integer> positions) {
+		Pair<KBExp<C, V>, KBExp<C, V>> ab = shift(ab0);
+		Pair<KBExp<C, V>, KBExp<C, V>> gd = gd0;
 		
-		Set<Triple<KBExp<C, V>, KBExp<C, V>, Map<V,KBExp<C,V>>>> retX = gd.first.cp(new LinkedList<>(), ab.first,
-				ab.second, gd.first, gd.second);
+		Set<Triple<KBExp<C, V>, KBExp<C, V>, Map<V,KBExp<C,V>>>> retX;
+		if (positions == null) {
+			retX = gd.first.cp(0, ab.first, ab.second, gd.first, gd.second);
+		} else {
+			retX = new HashSet<>();
+			for (int p : positions) {
+				Map<V, KBExp<C, V>> s = KBUnifier.unify0(gd.first.at(p), ab.first);
+				if (s != null) {
+					retX.add(new Triple<>(gd.second.subst(s), gd.first.replace(p, ab.second).subst(s), s));
+				}
+			}
+			count(Counter.UNIFICATIONS, positions.size());
+		}
+		count(Counter.UNIFIERS, retX.size());
 
 		Set<Pair<KBExp<C, V>, KBExp<C, V>>> ret = new HashSet<>();
 		for (Triple<KBExp<C, V>, KBExp<C, V>, Map<V, KBExp<C, V>>> c : retX) {
@@ -563,61 +1166,113 @@ public class KB<C, V> {
 		return ret;
 	}
 
-	protected KBExp<C, V> step1(Map<KBExp<C,V>, KBExp<C,V>> cache, Iterator<V> fresh,
-			List<Pair<KBExp<C, V>, KBExp<C, V>>> E, Set<Pair<KBExp<C, V>, KBExp<C, V>>> R, KBExp<C, V> e0) {
-		KBExp<C, V> e = e0;
-		if (cache != null && cache.containsKey(e)) {
-			return cache.get(e);
-		}
-		for (Pair<KBExp<C, V>, KBExp<C, V>> r0 : R) {
-			Pair<KBExp<C, V>, KBExp<C, V>> r = r0;
-			if (!Collections.disjoint(r.first.vars(), e.vars()) || !Collections.disjoint(r.second.vars(), e.vars())) {
-				r = freshen(fresh, r0);
-			}
-			
-			KBExp<C, V> lhs = r.first;
-			KBExp<C, V> rhs = r.second;
-			Map<V, KBExp<C, V>> s = KBUnifier.findSubst(lhs, e);
-			if (s == null) {
-				continue;
+	/**
+	 * @return the result of one rewrite at the root of e, by R or else by ordered rewriting with E, 
+	 *         or null if e is not a redex
+	 */
+	protected KBExp<C, V> step1(Collection<Pair<KBExp<C, V>, KBExp<C, V>>> E, 
+			KBIndex<C, V, Pair<KBExp<C, V>, KBExp<C, V>>> R, KBExp<C, V> e) {
+		return step1(E, R, e, null);
+	}
+	
+	//adds the member of E or R the step is taken with to used, if not null
+	private KBExp<C, V> step1(Collection<Pair<KBExp<C, V>, KBExp<C, V>>> E, 
+			KBIndex<C, V, Pair<KBExp<C, V>, KBExp<C, V>>> R, KBExp<C, V> e, Set<Pair<KBExp<C, V>, KBExp<C, V>>> used) {
+		//the variables of a rule's right-hand side are among those of its left-hand side, so every 
+		//variable is bound by matching and the rule needs no renaming apart from e
+		for (Pair<KBExp<C, V>, KBExp<C, V>> r : R.generalizations(e)) {
+			Map<V, KBExp<C, V>> s = match(r.first, e);
+			if (s != null) {
+				if (used != null) {
+					used.add(r);
+				}
+				return r.second.subst(s);
 			}
-			e = rhs.subst(s);
 		}
-		e = step1Es(E, e);
-		if (cache != null) {
-			cache.put(e0, e);
+		return step1Es(E, e, used);
+	}
+	
+	//KBUnifier.findSubst, counted
+	private Map<V, KBExp<C, V>> match(KBExp<C, V> lhs, KBExp<C, V> e) {
+		Map<V, KBExp<C, V>> s = KBUnifier.findSubst(lhs, e);
+		KBStats st = stats;
+		if (st != null) {
+			st.inc(Counter.MATCHES);
+			if (s != null) {
+				st.inc(Counter.MATCHERS);
+			}
 		}
-		return e;
+		return s;
+	}
+	
+	protected KBExp<C, V> step1Es(Collection<Pair<KBExp<C, V>, KBExp<C, V>>> E, KBExp<C, V> e) {
+		return step1Es(E, e, null);
 	}
 	
-	protected KBExp<C, V> step1Es(List<Pair<KBExp<C, V>, KBExp<C, V>>> E, KBExp<C, V> e) {
+	private KBExp<C, V> step1Es(Collection<Pair<KBExp<C, V>, KBExp<C, V>>> E, KBExp<C, V> e, Set<Pair<KBExp<C, V>, KBExp<C, V>>> used) {
+		if (unfailing && E == this.E) {
+			return step1Eidx(e, used);
+		}
 		if (unfailing) {
 			for (Pair<KBExp<C, V>, KBExp<C, V>> r0 : E) {
-				e = step1EsX(r0, e);
-				e = step1EsX(new Pair<>(r0.second, r0.first), e);
+				KBExp<C, V> ret = step1EsX(r0, e);
+				if (ret == null) {
+					ret = step1EsX(r0.reverse(), e);
+				}
+				if (ret != null) {
+					if (used != null) {
+						used.add(r0);
+					}
+					return ret;
+				}
 			}
 		}
-		return e;
+		return null;
 	}
 
-	private KBExp<C, V> step1EsX(Pair<KBExp<C, V>, KBExp<C, V>> r0, KBExp<C, V> e) {
-		Pair<KBExp<C, V>, KBExp<C, V>> r = r0;
-		if (!Collections.disjoint(r.first.vars(), e.vars())
-				|| !Collections.disjoint(r.second.vars(), e.vars())) {
-			r = freshen(fresh, r0);
+	//ordered rewriting with E through Eidx, which holds both orientations of each equation.  The
+	//instance of the left-hand side is e itself, so only the right-hand side is instantiated
+	private KBExp<C, V> step1Eidx(KBExp<C, V> e, Set<Pair<KBExp<C, V>, KBExp<C, V>>> used) {
+		for (Pair<KBExp<C, V>, KBExp<C, V>> r : Eidx.generalizations(e)) {
+			//an orientation not known is checked, so an instance is used only if it decreases
+			Orientation o = Eorient.getOrDefault(r, Orientation.CHECK);
+			if (o == Orientation.NEVER) {
+				continue;
+			}
+			Map<V, KBExp<C, V>> s = match(r.first, e);
+			if (s == null) {
+				continue;
+			}
+			KBExp<C, V> rhs0 = r.second.subst(s);
+			if (o == Orientation.CHECK && (rhs0 == e || !gt.apply(new Pair<>(e, rhs0)))) {
+				continue;
+			}
+			if (used != null) {
+				used.add(E.contains(r) ? r : r.reverse());
+			}
+			return rhs0;
+		}
+		return null;
+	}
+
+	//no reduction ordering can orient r if its right-hand side has variables its left-hand side 
+	//does not, so those orientations are skipped rather than renamed apart from e 
+	private KBExp<C, V> step1EsX(Pair<KBExp<C, V>, KBExp<C, V>> r, KBExp<C, V> e) {
+		if (!r.first.vars().containsAll(r.second.vars())) {
+			return null;
 		}
 
 		KBExp<C, V> lhs = r.first;
 		KBExp<C, V> rhs = r.second;
-		Map<V, KBExp<C, V>> s = KBUnifier.findSubst(lhs, e);
+		Map<V, KBExp<C, V>> s = match(lhs, e);
 		if (s == null) {
-			return e;
+			return null;
 		}
 
 		KBExp<C, V> lhs0 = lhs.subst(s);
 		KBExp<C, V> rhs0 = rhs.subst(s);
 		if (!gt.apply(new Pair<>(lhs0, rhs0))) {
-			return e;
+			return null;
 		}
 
 		return rhs0;
@@ -627,13 +1282,17 @@ public class KB<C, V> {
 	protected Collection<Pair<KBExp<C, V>, KBExp<C, V>>> reduce(
 			Collection<Pair<KBExp<C, V>, KBExp<C, V>>> set) {
 		Set<Pair<KBExp<C, V>, KBExp<C, V>>> p = new HashSet<>();
-		for (Pair<KBExp<C, V>, KBExp<C, V>> e : set) {
-			KBExp<C, V> lhs = red(new HashMap<>(), E, R, e.first);
-			KBExp<C, V> rhs = red(new HashMap<>(), E, R, e.second);
-			if (lhs.equals(rhs)) {
+		//not nfER, which is not thread-safe: even a lookup reorders it and may drop or retag an entry.
+		//Nor nfER when sequential, since a normal form kept from an earlier version may differ from the one
+		//found now while E and R are not confluent, and then the result would depend on the pool
+		Map<KBExp<C,V>, KBExp<C,V>> cache = pool == null ? new HashMap<>() : new ConcurrentHashMap<>();
+		List<Pair<KBExp<C, V>, KBExp<C, V>>> reds = map(new ArrayList<>(set), 
+				e -> new Pair<>(red(cache, E, Ridx, e.first), red(cache, E, Ridx, e.second)));
+		for (Pair<KBExp<C, V>, KBExp<C, V>> e : reds) {
+			if (e.first.equals(e.second)) {
 				continue;
 			}
-			p.add(new Pair<>(lhs, rhs));
+			p.add(e);
 		}
 		return p;
 	}
@@ -652,16 +1311,73 @@ public class KB<C, V> {
 	}
 	
 	
+	/**
+	 * One step of completion.  If it throws, E and R are restored to their state before the step,
+	 * down to the order E is picked and iterated in, and the normal form caches are cleared, as
+	 * they may hold normal forms by rules that are no longer there.
+	 */
 	protected boolean step() {
+		KBListener l = listener;
+		if (l == null || stats != null || !l.isEnabled()) {
+			return step0();
+		}
+		stats = new KBStats(count + 1);
+		l.started(count + 1);
+		long start = System.nanoTime();
+		long hits = nfR.hits() + nfER.hits(), misses = nfR.misses() + nfER.misses();
+		KBStats s = stats;
+		try {
+			boolean ret = step0();
+			s.add(Counter.STEP_NANOS, System.nanoTime() - start);
+			s.add(Counter.CACHE_HITS, nfR.hits() + nfER.hits() - hits);
+			s.add(Counter.CACHE_MISSES, nfR.misses() + nfER.misses() - misses);
+			s.add(Counter.SIZE_E, E.size());
+			s.add(Counter.SIZE_R, R.size());
+			s.add(Counter.SIZE_SEEN, seen.size());
+			s.add(Counter.HEAP_BYTES, KBStats.heap());
+			stats = null;
+			l.finished(s);
+			return ret;
+		} finally {
+			stats = null;
+		}
+	}
+	
+	private boolean step0() {
+		List<Runnable> outer = undo;
+		undo = new LinkedList<>();
+		//undone last, after the adds and removes that change them
+		List<Pair<KBExp<C, V>, KBExp<C, V>>> reducers0 = new ArrayList<>(reducers);
+		log(() -> reducers = reducers0);
+		log(E.counters());
+		try {
+			return stepX();
+		} catch (RuntimeException ex) {
+			List<Runnable> inverses = undo;
+			undo = null;
+			Collections.reverse(inverses);
+			for (Runnable r : inverses) {
+				r.run();
+			}
+			nfR.clear();
+			nfER.clear();
+			throw ex;
+		} finally {
+			undo = outer;
+		}
+	}
+	
+	private boolean stepX() {
 		//System.out.println("\n\niteration " + count);
 		//System.out.println(this);
 		count++;
+		log(() -> count--);
 
 		if (checkEmpty()) {
 			return true;
 		}
 
-		Pair<KBExp<C, V>, KBExp<C, V>> st = pick(E);
+		Pair<KBExp<C, V>, KBExp<C, V>> st = E.pick();
 		
 		KBExp<C, V> s0 = st.first;
 		KBExp<C, V> t0 = st.second;
@@ -674,54 +1390,59 @@ public class KB<C, V> {
 			a = t0; b = s0;
 			oriented = true;
 		} else if (s0.equals(t0)) {
-			remove(E, st); return false; //in case x = x coming in
+			removeE(st); return false; //in case x = x coming in
 		}  
 		else {
 			if (unfailing) {
-				remove(E, st);
-				add(E, st); //for sorting, will add to end of list
+				long age = E.age(st), seq = E.seq(st);
+				E.requeue(st); //will be picked after the other unorientable equations
+				log(() -> { E.remove(st); E.restore(st, age, seq); });
 				a = s0; b = t0; 
 			} else {
 				throw new RuntimeException("Unorientable: " + st.first + " = " + st.second);
 			}
 		}
 		Pair<KBExp<C, V>, KBExp<C, V>> ab = new Pair<>(a, b);
+		Pair<KBExp<C, V>, KBExp<C, V>> ba = ab.reverse();
+		log(() -> seen.removeIf(x -> x.first.equals(ab) || x.second.equals(ab) || x.first.equals(ba) || x.second.equals(ba)));
+		long t = now();
 		if (oriented) {
-			R.add(ab);
-			List<Pair<KBExp<C, V>, KBExp<C, V>>> CP = filterSubsumed(allcps(seen, ab));
-			addAll(E, CP);
-			remove(E, st); 
+			addRule(ab);
+			count(Counter.RULES_ADDED, 1);
+			List<Pair<KBExp<C, V>, KBExp<C, V>>> CP = newCps(allcps(seen, ab));
+			checkStop();
+			count(Counter.CP_NANOS, now() - t);
+			addAllE(CP);
+			removeE(st); 
 			collapseBy(ab);
 		} else {
-			List<Pair<KBExp<C, V>, KBExp<C, V>>> CP = filterSubsumed(allcps(seen, ab));
-			CP.addAll(filterSubsumed(allcps(seen, ab.reverse())));
-			CP.addAll(filterSubsumed(allcps2(seen, ab)));
-			CP.addAll(filterSubsumed(allcps2(seen, ab.reverse())));		
-			addAll(E, CP);
+			List<Pair<KBExp<C, V>, KBExp<C, V>>> CP = newCps(allcps(seen, ab));
+			CP.addAll(newCps(allcps(seen, ab.reverse())));
+			CP.addAll(newCps(allcps2(seen, ab)));
+			CP.addAll(newCps(allcps2(seen, ab.reverse())));		
+			checkStop();
+			count(Counter.CP_NANOS, now() - t);
+			addAllE(CP);
 		}
+		t = now();
 		compose();
 		
 		simplify(); //definitely needed... cuts down on number of iterations
 		//simplify2();	//TODO: add this in for efficiency sometime 
 		
-		if (sort_cps) {
-			sortByStrLen(E);
-		}
-		
-		E = filterSubsumedBySelf(E);
+		retainE(filterSubsumedBySelf(E));
+		count(Counter.INTERREDUCE_NANOS, now() - t);
 		
 		return false;	
 	}
 	
 
-	private Pair<KBExp<C, V>, KBExp<C, V>> pick(List<Pair<KBExp<C, V>, KBExp<C, V>>> l) {
-		for (int i = 0; i < l.size(); i++) {
-			Pair<KBExp<C,V>, KBExp<C,V>> x = l.get(i);
-			if (orientable(x)) {
-				return l.get(i);
-			}
-		} 
-		return l.get(0);
+	//filterSubsumed, counting the critical pairs computed and those dropped
+	private List<Pair<KBExp<C, V>, KBExp<C, V>>> newCps(Collection<Pair<KBExp<C, V>, KBExp<C, V>>> cps) {
+		List<Pair<KBExp<C, V>, KBExp<C, V>>> ret = filterSubsumed(cps);
+		count(Counter.CPS, cps.size());
+		count(Counter.CPS_SUBSUMED, cps.size() - ret.size());
+		return ret;
 	}
 	
 	boolean orientable(Pair<KBExp<C,V>, KBExp<C,V>> e) {
@@ -750,40 +1471,87 @@ public class KB<C, V> {
 	}
 
 	protected boolean allUnorientable() {
-		for (Pair<KBExp<C, V>, KBExp<C, V>> e : E) {
-			if (orientable(e)) {
-				return false;
-			}
-		}
-		return true;
+		return E.orientableCount() == 0;
 	}
 
+	/**
+	 * Checks the critical pairs of E and R for joinability, stopping at the first that is not.  Only 
+	 * overlaps tried since the last check are computed, and a pair joined by an earlier check is 
+	 * not joined again while the members of E and R it was joined with remain.
+	 */
 	protected boolean allCpsConfluent() {
+		Map<Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Pair<KBExp<C, V>, KBExp<C, V>>>, Supplier<Set<Pair<KBExp<C, V>, KBExp<C, V>>>>> jobs = new LinkedHashMap<>();
 		for (Pair<KBExp<C, V>, KBExp<C, V>> e : E) {
-			List<Pair<KBExp<C, V>, KBExp<C, V>>> set = filterSubsumed(reduce(allcps2(
-					new HashSet<>(), e)));
-			if (!allCpsConfluent("equation " + e, set)) {
-				return false;
-			}
+			planCps2(jobs, confSeen, e);
 		} 
 		for (Pair<KBExp<C, V>, KBExp<C, V>> e : R) {
-			List<Pair<KBExp<C, V>, KBExp<C, V>>> set = filterSubsumed(reduce(allcps(new HashSet<>(), e)));
-			if (!allCpsConfluent("rule" + e, set)) {
-				return false;
+			planCps(jobs, confSeen, e);
+		}
+		List<Pair<Pair<KBExp<C, V>, KBExp<C, V>>, Pair<KBExp<C, V>, KBExp<C, V>>>> keys = new ArrayList<>(jobs.keySet());
+		List<Set<Pair<KBExp<C, V>, KBExp<C, V>>>> cps;
+		try {
+			cps = map(new ArrayList<>(jobs.values()), Supplier::get);
+		} catch (RuntimeException ex) {
+			confSeen.removeAll(keys);
+			throw ex;
+		}
+		for (int i = 0; i < keys.size(); i++) {
+			if (!cps.get(i).isEmpty()) {
+				confCps.put(keys.get(i), cps.get(i));
 			}
 		}
-		return true;
+		
+		Set<Pair<KBExp<C, V>, KBExp<C, V>>> todo = new LinkedHashSet<>();
+		for (Set<Pair<KBExp<C, V>, KBExp<C, V>>> set : confCps.values()) {
+			for (Pair<KBExp<C, V>, KBExp<C, V>> e : set) {
+				if (!joined.containsKey(e)) {
+					todo.add(e);
+				}
+			}
+		}
+		
+		AtomicBoolean failed = new AtomicBoolean(false);
+		List<Pair<KBExp<C, V>, KBExp<C, V>>> todo0 = new ArrayList<>(todo);
+		List<Set<Pair<KBExp<C, V>, KBExp<C, V>>>> used = map(todo0, e -> {
+			if (failed.get()) {
+				return null;
+			}
+			Set<Pair<KBExp<C, V>, KBExp<C, V>>> ret = joinedBy(e);
+			if (ret == null) {
+				failed.set(true);
+			}
+			return ret;
+		});
+		for (int i = 0; i < todo0.size(); i++) {
+			if (used.get(i) != null) {
+				joined.put(todo0.get(i), used.get(i));
+			}
+		}
+		return !failed.get();
 	}
 
-	protected boolean allCpsConfluent(String s, Collection<Pair<KBExp<C, V>, KBExp<C, V>>> set) {
-		for (Pair<KBExp<C, V>, KBExp<C, V>> e : set) {
-			KBExp<C, V> lhs = red(new HashMap<>(), E, R, e.first);
-			KBExp<C, V> rhs = red(new HashMap<>(), E, R, e.second);
-			if (!lhs.equals(rhs)) {
-				return false;
-			}
+	/**
+	 * @return the members of E and R that join the critical pair e, or that its normal forms are an 
+	 * instance of, or null if there are none
+	 */
+	protected Set<Pair<KBExp<C, V>, KBExp<C, V>>> joinedBy(Pair<KBExp<C, V>, KBExp<C, V>> e) {
+		Map<KBExp<C,V>, KBExp<C,V>> cache = new HashMap<>();
+		Set<Pair<KBExp<C, V>, KBExp<C, V>>> used = new HashSet<>();
+		KBExp<C, V> lhs = red(cache, used, E, Ridx, e.first);
+		KBExp<C, V> rhs = red(cache, used, E, Ridx, e.second);
+		if (lhs.equals(rhs)) {
+			return used;
 		}
-		return true;
+		Pair<KBExp<C, V>, KBExp<C, V>> nf = new Pair<>(lhs, rhs);
+		Pair<KBExp<C, V>, KBExp<C, V>> by = subsumer(Epairs, nf, null);
+		if (by == null) {
+			by = subsumer(Rpairs, nf, null);
+		}
+		if (by == null) {
+			return null;
+		}
+		used.add(by);
+		return used;
 	}
 
 	@Override
@@ -794,18 +1562,6 @@ public class KB<C, V> {
 		return (sep(a, "\n") + "\n" + sep(b, "\n")).trim();
 	} 
 	
-	private static Comparator<Object> ToStringComparator = new Comparator<Object>() {
-		@Override
-		public int compare(Object o1, Object o2) {
-			if (o1.toString().length() > o2.toString().length()) {
-				return 1;
-			} else if (o1.toString().length() < o2.toString().length()) {
-				return -1;
-			}
-			return o1.toString().compareTo(o2.toString());
-		}
-	};
-	
 	static String sep(Collection<?> c, String sep) {
 		return sep(c.iterator(), sep);
 	}
@@ -0,0 +1,191 @@
+package catdata.algs.kb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import catdata.algs.kb.KBExp.KBApp;
+
+/**
+ *
+ * Deterministic left-to-right matching automaton over a fixed set of patterns.  A subject is
+ * read at most once, in preorder, and the state reached at its end lists the patterns it matches.
+ * Repeated variables are not compared, so for non-linear patterns callers confirm the
+ * candidates with KBUnifier, as for KBIndex.
+ *
+ * A state is a set of items (pattern, next position in the pattern).  Reading a symbol splits
+ * a state in two: the items with that symbol next go on into its arguments, and the items with
+ * a variable next jump over the whole subterm, rejoining the first at its end.  So the states
+ * depend only on the positions of the patterns, not on the shapes of subjects, and there are
+ * finitely many.  They are built the first time they are reached, without locking: threads
+ * racing to build a transition intern the same state, so an automaton may be shared.
+ *
+ * @param <C> type of constant/function symbols
+ * @param <V> type of variables
+ * @param <T> type of values of the patterns
+ */
+public class KBAutomaton<C, V, T> {
+
+	private static final class State<T> {
+		private final int[] items; //(pattern, position) pairs, sorted by pattern
+		private final List<T> accept;
+		//transitions by symbol, then arity, and unions with other states
+		private final Map<Object, Step<T>[]> next = new ConcurrentHashMap<>();
+		private final Map<State<T>, State<T>> join = new ConcurrentHashMap<>();
+
+		private State(int[] items, List<T> accept) {
+			this.items = items;
+			this.accept = accept;
+		}
+	}
+
+	//the items of a state that read a symbol into its arguments, and those that skip its subterm
+	private static final class Step<T> {
+		private final State<T> into, over;
+
+		private Step(State<T> into, State<T> over) {
+			this.into = into;
+			this.over = over;
+		}
+	}
+
+	//stands for every subject variable, which only pattern variables match
+	private static final Object VAR = new Object();
+
+	private final List<KBExp<C, V>[]> patterns = new ArrayList<>();
+	private final List<T> values = new ArrayList<>();
+	private final Map<List<Integer>, State<T>> states = new ConcurrentHashMap<>();
+	private final State<T> start;
+	private final State<T> dead;
+
+	/**
+	 * @param vals the values, which match returns in this order
+	 * @param pattern the pattern of each value
+	 */
+	public KBAutomaton(List<T> vals, Function<T, KBExp<C, V>> pattern) {
+		int[] items = new int[2 * vals.size()];
+		for (int r = 0; r < vals.size(); r++) {
+			T val = vals.get(r);
+			patterns.add(KBIndex.flatten(pattern.apply(val)));
+			values.add(val);
+			items[2 * r] = r;
+		}
+		start = intern(items);
+		dead = intern(new int[0]);
+	}
+
+	/**
+	 * @return the values of the patterns that e may be an instance of, in order
+	 */
+	public List<T> match(KBExp<C, V> e) {
+		return run(start, e).accept;
+	}
+
+	/**
+	 * @return the number of states built so far
+	 */
+	public int size() {
+		return states.size();
+	}
+
+	//the items of s, which are at the start of e, moved past it
+	private State<T> run(State<T> s, KBExp<C, V> e) {
+		if (s == dead) {
+			return dead;
+		}
+		if (e.isVar) {
+			return step(s, VAR, 0).over;
+		}
+		KBApp<C, V> a = e.getApp();
+		Step<T> t = step(s, a.f, a.args.length);
+		State<T> u = t.into;
+		for (int i = 0; i < a.args.length && u != dead; i++) {
+			u = run(u, a.args[i]);
+		}
+		return join(u, t.over);
+	}
+
+	private Step<T> step(State<T> s, Object f, int n) {
+		Step<T>[] a = s.next.get(f);
+		if (a != null && n < a.length && a[n] != null) {
+			return a[n];
+		}
+		Step<T> t = new Step<>(intern(advance(s.items, f, n, false)), intern(advance(s.items, f, n, true)));
+		//an update lost to a racing thread only means building t again
+		Step<T>[] a0 = a == null ? newSteps(n + 1) : Arrays.copyOf(a, Math.max(a.length, n + 1));
+		a0[n] = t;
+		s.next.put(f, a0);
+		return t;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> Step<T>[] newSteps(int n) {
+		return (Step<T>[]) new Step<?>[n];
+	}
+
+	//the items with f of arity n next, or with over those with a variable next, moved past it
+	private int[] advance(int[] items, Object f, int n, boolean over) {
+		int[] ret = new int[items.length];
+		int j = 0;
+		for (int x = 0; x < items.length; x += 2) {
+			int r = items[x], i = items[x + 1];
+			KBExp<C, V> p = patterns.get(r)[i];
+			boolean moves = over ? p.isVar
+					: !p.isVar && f != VAR && p.getApp().f.equals(f) && p.getApp().args.length == n;
+			if (moves) {
+				ret[j++] = r;
+				ret[j++] = i + 1;
+			}
+		}
+		return Arrays.copyOf(ret, j);
+	}
+
+	//the items of s and t, which are of different patterns
+	private State<T> join(State<T> s, State<T> t) {
+		if (t == dead) {
+			return s;
+		}
+		if (s == dead) {
+			return t;
+		}
+		State<T> u = s.join.get(t);
+		if (u != null) {
+			return u;
+		}
+		int[] items = new int[s.items.length + t.items.length];
+		int x = 0, y = 0, j = 0;
+		while (x < s.items.length || y < t.items.length) {
+			if (y == t.items.length || (x < s.items.length && s.items[x] < t.items[y])) {
+				items[j++] = s.items[x++];
+				items[j++] = s.items[x++];
+			} else {
+				items[j++] = t.items[y++];
+				items[j++] = t.items[y++];
+			}
+		}
+		u = intern(items);
+		s.join.put(t, u);
+		return u;
+	}
+
+	private State<T> intern(int[] items) {
+		List<Integer> key = new ArrayList<>(items.length);
+		for (int x : items) {
+			key.add(x);
+		}
+		return states.computeIfAbsent(key, k -> {
+			List<T> accept = new ArrayList<>();
+			for (int x = 0; x < items.length; x += 2) {
+				if (items[x + 1] == patterns.get(items[x]).length) {
+					accept.add(values.get(items[x]));
+				}
+			}
+			return new State<>(items, Collections.unmodifiableList(accept));
+		});
+	}
+
+}
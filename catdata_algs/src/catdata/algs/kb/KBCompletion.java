@@ -0,0 +1,57 @@
+package catdata.algs.kb;
+
+/**
+ *
+ * The outcome of running completion under a budget.  Unless completion is done, the 
+ * KB holds the state it stopped in, and resume continues from there.
+ *
+ * @param <C> type of constant/function symbols
+ * @param <V> type of variables
+ */
+public class KBCompletion<C, V> {
+
+	public enum Status {
+		COMPLETE, GROUND_COMPLETE, TIMEOUT, STEP_LIMIT, PASSIVE_LIMIT, CANCELLED
+	}
+
+	public final KB<C, V> kb;
+	public final Status status;
+
+	/**
+	 * Number of steps completed by this run.
+	 */
+	public final int steps;
+
+	KBCompletion(KB<C, V> kb, Status status, int steps) {
+		this.kb = kb;
+		this.status = status;
+		this.steps = steps;
+	}
+
+	public boolean isDone() {
+		return status == Status.COMPLETE || status == Status.GROUND_COMPLETE;
+	}
+
+	/**
+	 * @return a snapshot of the completed system, for concurrent queries; see KB.snapshot
+	 */
+	public KBSystem<C, V> snapshot() {
+		if (!isDone()) {
+			throw new RuntimeException("Cannot snapshot unfinished completion: " + this);
+		}
+		return kb.snapshot();
+	}
+
+	/**
+	 * Continues completion with a new budget, as in KB.complete.
+	 */
+	public KBCompletion<C, V> resume(long millis, int steps, int maxPassive) {
+		return kb.complete(millis, steps, maxPassive);
+	}
+
+	@Override
+	public String toString() {
+		return status + " after " + steps + " steps";
+	}
+
+}
@@ -1,7 +1,8 @@
 package catdata.algs.kb;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -9,11 +10,20 @@ import java.util.Set;
 import catdata.algs.Triple;
 
 /**
- * 
+ *
  * @author Ryan Wisnesky
  *
  * First-order terms with constants/functions, and variables.
  *
+ * Terms are immutable and hash-consed: use mkVar and mkApp to construct them.  Equal terms
+ * are always the same instance, so equals is reference equality and the hash is stored.
+ * KBVar and KBApp have no public constructors, since a constructor could only make a term
+ * that is not the shared instance, and so is equal to no other term; new KBVar(v) is now
+ * KBExp.mkVar(v), and new KBApp(f, args) is KBExp.mkApp(f, args).
+ *
+ * Positions are preorder offsets: the root is at 0, and the i-th argument of the term at
+ * position p starts at p + 1 + the sizes of the arguments before it.
+ *
  * @param <C> type of constant/function symbols
  * @param <V> type of variables
  */
@@ -24,11 +34,47 @@ public abstract class KBExp<C, V> {
 		public R visit(E env, KBApp<C, V> e);
 	}
 
+	public static <C, V> KBVar<C, V> mkVar(V var) {
+		return KBTermBank.var(var);
+	}
+
+	public static <C, V> KBApp<C, V> mkApp(C f, List<KBExp<C, V>> args) {
+		return KBTermBank.app(f, args.toArray(KBExp.<C, V>newArgs(args.size())));
+	}
+
+	/**
+	 * Takes ownership of args, which must not be modified afterwards.
+	 */
+	static <C, V> KBApp<C, V> mkApp(C f, KBExp<C, V>[] args) {
+		return KBTermBank.app(f, args);
+	}
+
+	@SuppressWarnings("unchecked")
+	static <C, V> KBExp<C, V>[] newArgs(int n) {
+		return (KBExp<C, V>[]) new KBExp<?, ?>[n];
+	}
+
+	private final int hash;
+
+	/**
+	 * Number of nodes in this term, i.e. the number of positions.
+	 */
+	public final int size;
+
+	KBExp(int hash, int size) {
+		this.hash = hash;
+		this.size = size;
+	}
+
 	@Override
-	public abstract boolean equals(Object o);
+	public final boolean equals(Object o) {
+		return this == o;
+	}
 
 	@Override
-	public abstract int hashCode();
+	public final int hashCode() {
+		return hash;
+	}
 
 	public abstract <R, E> R accept(E env, KBExpVisitor<C, V, R, E> e);
 
@@ -40,64 +86,55 @@ public abstract class KBExp<C, V> {
 
 	protected abstract void vars(Set<V> vars);
 
-	public abstract Set<Triple<KBExp<C, V>, KBExp<C, V>, Map<V, KBExp<C, V>>>> cp(List<Integer> l,
-			KBExp<C, V> a, KBExp<C, V> b, KBExp<C, V> g, KBExp<C, V> d);
+	/**
+	 * Critical pairs from overlapping a -> b into g -> d, where this is the subterm of g at
+	 * position p.
+	 */
+	public Set<Triple<KBExp<C, V>, KBExp<C, V>, Map<V, KBExp<C, V>>>> cp(int p,
+			KBExp<C, V> a, KBExp<C, V> b, KBExp<C, V> g, KBExp<C, V> d) {
+		Set<Triple<KBExp<C, V>, KBExp<C, V>, Map<V, KBExp<C, V>>>> ret = new HashSet<>();
+		cp(p, a, b, g, d, ret);
+		return ret;
+	}
+
+	protected abstract void cp(int p, KBExp<C, V> a, KBExp<C, V> b, KBExp<C, V> g, KBExp<C, V> d,
+			Set<Triple<KBExp<C, V>, KBExp<C, V>, Map<V, KBExp<C, V>>>> ret);
 
-	public abstract KBExp<C, V> replace(List<Integer> p, KBExp<C, V> r);
+	public abstract KBExp<C, V> replace(int p, KBExp<C, V> r);
+
+	public abstract KBExp<C, V> at(int p);
 
 	public abstract KBExp<C, V> freeze();
 
 	public abstract KBExp<C, V> unfreeze();
 
-	public boolean isVar;
+	public final boolean isVar = this instanceof KBVar;
 
 	public abstract KBVar<C, V> getVar();
 
 	public abstract KBApp<C, V> getApp();
 
-	private Set<V> vars = null;
+	//terms are shared between threads, so the set is built before it is published
+	private volatile Set<V> vars = null;
 
 	public Set<V> vars() {
-		if (vars == null) {
-			vars = new HashSet<>();
-			vars(vars);
+		Set<V> ret = vars;
+		if (ret == null) {
+			ret = new HashSet<>();
+			vars(ret);
+			vars = ret;
 		}
-		return vars;
+		return ret;
 	}
 
 	// //////////////////////////////////////////////////////////////////////////////////////////////////
 
 	public static class KBVar<C, V> extends KBExp<C, V> {
-		public V var;
+		public final V var;
 
-		public KBVar(V var) {
+		KBVar(V var, int hash) {
+			super(hash, 1);
 			this.var = var;
-			isVar = true;
-		}
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + ((var == null) ? 0 : var.hashCode());
-			return result;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj)
-				return true;
-			if (obj == null)
-				return false;
-			if (getClass() != obj.getClass())
-				return false;
-			KBVar<?, ?> other = (KBVar<?, ?>) obj;
-			if (var == null) {
-				if (other.var != null)
-					return false;
-			} else if (!var.equals(other.var))
-				return false;
-			return true;
 		}
 
 		@Override
@@ -125,30 +162,30 @@ public abstract class KBExp<C, V> {
 		}
 
 		@Override
-		public Set<Triple<KBExp<C, V>, KBExp<C, V>, Map<V, KBExp<C, V>>>> cp(List<Integer> l,
-				KBExp<C, V> a, KBExp<C, V> b, KBExp<C, V> g, KBExp<C, V> d) {
-			return new HashSet<>();
+		protected void cp(int p, KBExp<C, V> a, KBExp<C, V> b, KBExp<C, V> g, KBExp<C, V> d,
+				Set<Triple<KBExp<C, V>, KBExp<C, V>, Map<V, KBExp<C, V>>>> ret) {
 		}
 
 		@Override
-		public KBExp<C, V> replace(List<Integer> l, KBExp<C, V> r) {
-			if (l.isEmpty()) {
+		public KBExp<C, V> replace(int p, KBExp<C, V> r) {
+			if (p == 0) {
 				return r;
 			}
 			throw new RuntimeException("Cannot replace");
 		}
 
-		KBExp<C, V> frozen = null;
+		@Override
+		public KBExp<C, V> at(int p) {
+			if (p == 0) {
+				return this;
+			}
+			throw new RuntimeException("No position " + p + " in " + this);
+		}
 
-		@SuppressWarnings({ "unchecked", "rawtypes" })
+		@SuppressWarnings("unchecked")
 		@Override
 		public KBExp<C, V> freeze() {
-			if (frozen == null) {
-				frozen = new KBApp(this, new LinkedList<>()); // note violation
-																// of
-																// type-safety
-			}
-			return frozen;
+			return mkApp((C) this, newArgs(0)); //note violation of type-safety: the variable is no C
 		}
 
 		@Override
@@ -181,58 +218,51 @@ public abstract class KBExp<C, V> {
 	// //////////////////////////////////////////////////////////////////////////////////////////////////
 
 	public static class KBApp<C, V> extends KBExp<C, V> {
-		public C f;
-		public List<KBExp<C, V>> args;
+		public final C f;
+		final KBExp<C, V>[] args;
 
-		public KBApp(C f, List<KBExp<C, V>> args) {
+		KBApp(C f, KBExp<C, V>[] args, int hash) {
+			super(hash, size(args));
 			this.f = f;
 			this.args = args;
-			isVar = false;
 		}
 
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + ((args == null) ? 0 : args.hashCode());
-			result = prime * result + ((f == null) ? 0 : f.hashCode());
-			return result;
+		private static int size(KBExp<?, ?>[] args) {
+			int ret = 1;
+			for (KBExp<?, ?> arg : args) {
+				ret += arg.size;
+			}
+			return ret;
 		}
 
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj)
-				return true;
-			if (obj == null)
-				return false;
-			if (getClass() != obj.getClass())
-				return false;
-			KBApp<?, ?> other = (KBApp<?, ?>) obj;
-			if (args == null) {
-				if (other.args != null)
-					return false;
-			} else if (!args.equals(other.args))
-				return false;
-			if (f == null) {
-				if (other.f != null)
-					return false;
-			} else if (!f.equals(other.f))
-				return false;
-			return true;
+		public int arity() {
+			return args.length;
+		}
+
+		public KBExp<C, V> arg(int i) {
+			return args[i];
+		}
+
+		/**
+		 * @return a read-only view of the arguments, in place of the former public List field args,
+		 * which an array now backs
+		 */
+		public List<KBExp<C, V>> args() {
+			return Collections.unmodifiableList(Arrays.asList(args));
 		}
 
 		@Override
 		public String toString() {
-			if (args.isEmpty()) {
+			if (args.length == 0) {
 				return f.toString();
 			}
-			if (args.size() == 2) {
-				return "(" + args.get(0) + " " + f + " " + args.get(1) + ")";
+			if (args.length == 2) {
+				return "(" + args[0] + " " + f + " " + args[1] + ")";
 			}
-			if (args.size() == 1 && !args.get(0).isVar && args.get(0).getApp().args.size() == 2) {
-				return f + KB.sep(args, ",");
+			if (args.length == 1 && !args[0].isVar && args[0].getApp().args.length == 2) {
+				return f + KB.sep(args(), ",");
 			}
-			return f + "(" + KB.sep(args, ",") + ")";
+			return f + "(" + KB.sep(args(), ",") + ")";
 		}
 
 		@Override
@@ -252,11 +282,20 @@ public abstract class KBExp<C, V> {
 
 		@Override
 		public KBExp<C, V> subst(Map<V, KBExp<C, V>> sigma) {
-			List<KBExp<C, V>> n = new LinkedList<>();
-			for (KBExp<C, V> arg : args) {
-				n.add(arg.subst(sigma));
+			KBExp<C, V>[] n = null;
+			for (int i = 0; i < args.length; i++) {
+				KBExp<C, V> arg0 = args[i].subst(sigma);
+				if (n == null && arg0 != args[i]) {
+					n = args.clone();
+				}
+				if (n != null) {
+					n[i] = arg0;
+				}
 			}
-			return new KBApp<>(f, n);
+			if (n == null) {
+				return this;
+			}
+			return mkApp(f, n);
 		}
 
 		@Override
@@ -267,14 +306,12 @@ public abstract class KBExp<C, V> {
 		}
 
 		@Override
-		public Set<Triple<KBExp<C, V>, KBExp<C, V>, Map<V, KBExp<C, V>>>> cp(List<Integer> p,
-				KBExp<C, V> a, KBExp<C, V> b, KBExp<C, V> g, KBExp<C, V> d) {
-			Set<Triple<KBExp<C, V>, KBExp<C, V>, Map<V, KBExp<C, V>>>> ret = new HashSet<>();
-			int q = 0;
+		protected void cp(int p, KBExp<C, V> a, KBExp<C, V> b, KBExp<C, V> g, KBExp<C, V> d,
+				Set<Triple<KBExp<C, V>, KBExp<C, V>, Map<V, KBExp<C, V>>>> ret) {
+			int q = p + 1;
 			for (KBExp<C, V> arg : args) {
-				List<Integer> p0 = new LinkedList<>(p);
-				p0.add(q++);
-				ret.addAll(arg.cp(p0, a, b, g, d));
+				arg.cp(q, a, b, g, d, ret);
+				q += arg.size;
 			}
 
 			Map<V, KBExp<C, V>> s = KBUnifier.unify0(this, a);
@@ -283,62 +320,69 @@ public abstract class KBExp<C, V> {
 						d.subst(s), g.replace(p, b).subst(s), s);
 				ret.add(toadd);
 			}
-			return ret;
 		}
 
 		@Override
-		public KBExp<C, V> replace(List<Integer> l, KBExp<C, V> r) {
-			if (l.isEmpty()) {
+		public KBExp<C, V> replace(int p, KBExp<C, V> r) {
+			if (p == 0) {
 				return r;
 			}
-			Integer x = l.get(0);
-			List<KBExp<C, V>> new_args = new LinkedList<>();
-			for (int i = 0; i < args.size(); i++) {
-				KBExp<C, V> a = args.get(i);
-				if (i == x) {
-					a = a.replace(l.subList(1, l.size()), r);
+			p--;
+			for (int i = 0; i < args.length; i++) {
+				if (p < args[i].size) {
+					KBExp<C, V>[] new_args = args.clone();
+					new_args[i] = args[i].replace(p, r);
+					return mkApp(f, new_args);
 				}
-				new_args.add(a);
+				p -= args[i].size;
 			}
-			return new KBApp<>(f, new_args);
+			throw new RuntimeException("Cannot replace");
 		}
 
-		KBExp<C, V> freeze = null;
-
 		@Override
-		public KBExp<C, V> freeze() {
-			if (freeze == null) {
-				List<KBExp<C, V>> new_args = new LinkedList<>();
-				for (KBExp<C, V> arg : args) {
-					new_args.add(arg.freeze());
+		public KBExp<C, V> at(int p) {
+			KBExp<C, V> e = this;
+			while (p != 0) {
+				if (e.isVar || p >= e.size) {
+					throw new RuntimeException("No position " + p + " in " + this);
+				}
+				p--;
+				for (KBExp<C, V> arg : ((KBApp<C, V>) e).args) {
+					if (p < arg.size) {
+						e = arg;
+						break;
+					}
+					p -= arg.size;
 				}
-				freeze = new KBApp<>(f, new_args);
 			}
-			return freeze;
+			return e;
 		}
 
-		KBExp<C, V> unfreeze = null;
+		@Override
+		public KBExp<C, V> freeze() {
+			KBExp<C, V>[] new_args = newArgs(args.length);
+			for (int i = 0; i < args.length; i++) {
+				new_args[i] = args[i].freeze();
+			}
+			return mkApp(f, new_args);
+		}
 
 		@SuppressWarnings("unchecked")
 		@Override
 		public KBExp<C, V> unfreeze() {
-			if (unfreeze == null) {
-				if (f instanceof KBVar) {
-					unfreeze = (KBVar<C, V>) f;
-				} else {
-					List<KBExp<C, V>> new_args = new LinkedList<>();
-					for (KBExp<C, V> arg : args) {
-						new_args.add(arg.unfreeze());
-					}
-					unfreeze = new KBApp<C, V>(f, new_args);
-				}
+			if (f instanceof KBVar) {
+				return (KBVar<C, V>) f;
+			}
+			KBExp<C, V>[] new_args = newArgs(args.length);
+			for (int i = 0; i < args.length; i++) {
+				new_args[i] = args[i].unfreeze();
 			}
-			return unfreeze;
+			return mkApp(f, new_args);
 		}
 
 		@Override
 		public boolean hasAsSubterm(KBExp<C, V> sub) {
-			if (this.equals(sub)) {
+			if (this == sub) {
 				return true;
 			}
 			for (KBExp<C, V> arg : args) {
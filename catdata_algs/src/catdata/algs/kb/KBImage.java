@@ -0,0 +1,385 @@
+package catdata.algs.kb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import catdata.algs.Pair;
+import catdata.algs.kb.KBExp.KBApp;
+
+/**
+ *
+ * Binary images of completed systems, so that completion need not be rerun in every JVM.
+ * A term image (from a KBSystem) is opened with map, which memory-maps it and normalizes
+ * directly against the mapped rules; a word image (from a completed KB_Thue) is read back
+ * with thue.  Symbols are stored by name, through functions given by the caller, so any
+ * symbol type with a faithful naming will do.
+ *
+ * The layout, in big-endian ints unless noted:
+ *
+ *   header   magic, version, kind (0 terms, 1 words), complete, red_its, ordering
+ *            (0 none, 1 LPO, 2 KBO), varWeight, #symbols, #rules, #rules from R,
+ *            byte offset of the term pool, byte offset of the name pool
+ *   symbols  arity, weight, name offset, name length (bytes, in the name pool); one entry for
+ *            each arity a symbol is used at, the entries of a symbol sharing its weight and name
+ *   prec     the precedence, as a #symbols x #symbols bit matrix, row major
+ *   buckets  first and last+1 rule with each head symbol, then those headed by a variable
+ *   rules    offsets in the term pool (in ints) of lhs and rhs, #variables, ordered
+ *   terms    preorder, a symbol as its index and the i-th variable of a rule as -(i+1);
+ *            words are their length followed by their letters
+ *   names    UTF-8
+ *
+ * Rules are sorted by head symbol; within a bucket, rules of R come before the orientations
+ * of E, which are marked ordered and only apply when decreasing.
+ */
+public class KBImage {
+
+	static final int MAGIC = 0x4B42494D;
+	static final int VERSION = 2;
+	static final int TERMS = 0, WORDS = 1;
+	static final int NONE = 0, LPO = 1, KBO = 2;
+	static final int HEADER = 12 * 4;
+
+	private KBImage() {
+	}
+
+	/**
+	 * Writes a system ordered by KBOrders.lpogt(prec) or, with weights, by
+	 * KBOrders.kbogt(weight, varWeight, prec); the ordering is recorded so that ordered
+	 * rewriting with E works after loading.  For complete systems prec may be null.
+	 *
+	 * The ordering recorded must be the one the system was completed under, or the image gives
+	 * wrong normal forms.  It is checked against the system's on the rules and on both
+	 * orientations of the equations, which catches an ordering that orients any of them
+	 * differently, but not one that only differs on other terms.
+	 *
+	 * @param name the name of each symbol, which must be injective
+	 * @param prec the precedence, or null to record none
+	 * @param weight the weights, or null for LPO
+	 */
+	public static <C, V> void write(KBSystem<C, V> sys, Path path, Function<C, String> name,
+			Function<Pair<C, C>, Boolean> prec, Function<C, Integer> weight, int varWeight) throws IOException {
+		if (prec == null && !sys.getEquations().isEmpty()) {
+			throw new RuntimeException("A precedence is required to write a system with equations.");
+		}
+		List<Pair<KBExp<C, V>, KBExp<C, V>>> rules = new ArrayList<>(sys.getRules());
+		int nR = rules.size();
+		for (Pair<KBExp<C, V>, KBExp<C, V>> e : sys.getEquations()) {
+			for (Pair<KBExp<C, V>, KBExp<C, V>> x : Arrays.asList(e, e.reverse())) {
+				if (!sys.gt().apply(x.reverse()) && x.first.vars().containsAll(x.second.vars())) {
+					rules.add(x);
+				}
+			}
+		}
+		if (prec != null) {
+			Function<Pair<KBExp<C, V>, KBExp<C, V>>, Boolean> gt = weight == null ? KBOrders.lpogt(prec)
+					: KBOrders.kbogt(weight, varWeight, prec);
+			List<Pair<KBExp<C, V>, KBExp<C, V>>> checked = new ArrayList<>(sys.getRules());
+			checked.addAll(sys.getEquations());
+			for (Pair<KBExp<C, V>, KBExp<C, V>> r : checked) {
+				for (Pair<KBExp<C, V>, KBExp<C, V>> x : Arrays.asList(r, r.reverse())) {
+					if (!gt.apply(x).equals(sys.gt().apply(x))) {
+						throw new RuntimeException("The precedence and weights given do not order " + x.first
+								+ " and " + x.second + " as the system does.");
+					}
+				}
+			}
+		}
+
+		//symbols paired with their arities
+		Map<Pair<C, Integer>, Integer> syms = new LinkedHashMap<>();
+		for (Pair<KBExp<C, V>, KBExp<C, V>> r : rules) {
+			symbols(r.first, syms);
+			symbols(r.second, syms);
+		}
+		List<C> table = new ArrayList<>();
+		int[] arity = new int[syms.size()];
+		for (Pair<C, Integer> f : syms.keySet()) {
+			arity[table.size()] = f.second;
+			table.add(f.first);
+		}
+		int n = table.size();
+
+		//rule indices, sorted by head and then by whether they come from E
+		List<Integer> order = new ArrayList<>();
+		for (int i = 0; i < rules.size(); i++) {
+			order.add(i);
+		}
+		order.sort((i, j) -> {
+			int c = Integer.compare(head(rules.get(i).first, syms, n), head(rules.get(j).first, syms, n));
+			return c != 0 ? c : Boolean.compare(i >= nR, j >= nR);
+		});
+
+		List<Integer> terms = new ArrayList<>();
+		int[] ruleTable = new int[4 * rules.size()];
+		int[] buckets = new int[2 * (n + 1)];
+		Arrays.fill(buckets, -1);
+		for (int k = 0; k < order.size(); k++) {
+			int i = order.get(k);
+			Pair<KBExp<C, V>, KBExp<C, V>> r = rules.get(i);
+			int h = head(r.first, syms, n);
+			if (buckets[2 * h] == -1) {
+				buckets[2 * h] = k;
+			}
+			buckets[2 * h + 1] = k + 1;
+			Map<V, Integer> vars = new HashMap<>();
+			ruleTable[4 * k] = terms.size();
+			flatten(r.first, syms, vars, terms);
+			ruleTable[4 * k + 1] = terms.size();
+			flatten(r.second, syms, vars, terms);
+			ruleTable[4 * k + 2] = vars.size();
+			ruleTable[4 * k + 3] = i >= nR ? 1 : 0;
+		}
+		for (int h = 0; h <= n; h++) {
+			if (buckets[2 * h] == -1) {
+				buckets[2 * h] = buckets[2 * h + 1] = 0;
+			}
+		}
+
+		int[] prec0 = new int[(n * n + 31) / 32];
+		for (int i = 0; prec != null && i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (!table.get(i).equals(table.get(j)) && prec.apply(new Pair<>(table.get(i), table.get(j)))) {
+					prec0[(i * n + j) / 32] |= 1 << ((i * n + j) % 32);
+				}
+			}
+		}
+		int[] weights = new int[n];
+		for (int i = 0; weight != null && i < n; i++) {
+			weights[i] = weight.apply(table.get(i));
+		}
+		int ordering = prec == null ? NONE : weight == null ? LPO : KBO;
+
+		write(path, TERMS, sys.isComplete(), sys.red_its(), ordering, varWeight, table, name, arity, weights,
+				prec0, buckets, ruleTable, nR, terms);
+	}
+
+	/**
+	 * Writes the rules of a completed string rewriting system.
+	 *
+	 * @param name the name of each letter, which must be injective
+	 */
+	public static <Y> void write(KB_Thue<Y> kb, Path path, Function<Y, String> name) throws IOException {
+		if (!kb.isFinished()) {
+			throw new RuntimeException("Must finish completion to write the system.");
+		}
+		Map<Y, Integer> syms = new LinkedHashMap<>();
+		List<Integer> terms = new ArrayList<>();
+		List<Pair<List<Y>, List<Y>>> rules = new ArrayList<>(kb.getRules());
+		int[] ruleTable = new int[4 * rules.size()];
+		for (int k = 0; k < rules.size(); k++) {
+			ruleTable[4 * k] = terms.size();
+			word(rules.get(k).first, syms, terms);
+			ruleTable[4 * k + 1] = terms.size();
+			word(rules.get(k).second, syms, terms);
+		}
+		List<Y> table = new ArrayList<>(syms.keySet());
+		int n = table.size();
+		int[] buckets = new int[2 * (n + 1)];
+		buckets[2 * n + 1] = rules.size();
+		write(path, WORDS, true, 0, NONE, 0, table, name, new int[n], new int[n], new int[(n * n + 31) / 32],
+				buckets, ruleTable, rules.size(), terms);
+	}
+
+	/**
+	 * @param symbol the symbol of each name written
+	 * @return a normalizer over the memory-mapped image at path
+	 */
+	public static <C, V> KBMapped<C, V> map(Path path, Function<String, C> symbol) throws IOException {
+		ByteBuffer buf = open(path);
+		if (buf.getInt(8) != TERMS) {
+			throw new RuntimeException("Not a term rewriting system: " + path);
+		}
+		return new KBMapped<>(buf, symbol);
+	}
+
+	/**
+	 * @param letter the letter of each name written
+	 * @return the completed string rewriting system in the image at path
+	 */
+	public static <Y> KB_Thue<Y> thue(Path path, Function<String, Y> letter) throws IOException {
+		ByteBuffer buf = open(path);
+		if (buf.getInt(8) != WORDS) {
+			throw new RuntimeException("Not a string rewriting system: " + path);
+		}
+		List<Y> table = new ArrayList<>();
+		for (int i = 0; i < buf.getInt(28); i++) {
+			table.add(letter.apply(name(buf, i)));
+		}
+		int termBase = buf.getInt(40), ruleBase = ruleBase(buf);
+		Set<Pair<List<Y>, List<Y>>> rules = new HashSet<>();
+		for (int k = 0; k < buf.getInt(32); k++) {
+			rules.add(new Pair<>(word(buf, termBase, buf.getInt(ruleBase + 16 * k), table),
+					word(buf, termBase, buf.getInt(ruleBase + 16 * k + 4), table)));
+		}
+		return new KB_Thue<>(rules);
+	}
+
+	// ///////////////////////////////////////////////////////////////////////////////////////////
+
+	static ByteBuffer open(Path path) throws IOException {
+		ByteBuffer buf;
+		try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+			buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		}
+		if (buf.limit() < HEADER || buf.getInt(0) != MAGIC) {
+			throw new RuntimeException("Not a rewrite system image: " + path);
+		}
+		if (buf.getInt(4) != VERSION) {
+			throw new RuntimeException("Unsupported image version " + buf.getInt(4) + ": " + path);
+		}
+		return buf;
+	}
+
+	static int symBase() {
+		return HEADER;
+	}
+
+	static int precBase(ByteBuffer buf) {
+		return HEADER + 16 * buf.getInt(28);
+	}
+
+	static int bucketBase(ByteBuffer buf) {
+		int n = buf.getInt(28);
+		return precBase(buf) + 4 * ((n * n + 31) / 32);
+	}
+
+	static int ruleBase(ByteBuffer buf) {
+		return bucketBase(buf) + 8 * (buf.getInt(28) + 1);
+	}
+
+	static String name(ByteBuffer buf, int sym) {
+		int off = buf.getInt(HEADER + 16 * sym + 8), len = buf.getInt(HEADER + 16 * sym + 12);
+		byte[] b = new byte[len];
+		for (int i = 0; i < len; i++) {
+			b[i] = buf.get(buf.getInt(44) + off + i);
+		}
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	private static <Y> List<Y> word(ByteBuffer buf, int termBase, int pos, List<Y> table) {
+		int len = buf.getInt(termBase + 4 * pos);
+		List<Y> ret = new ArrayList<>(len);
+		for (int i = 1; i <= len; i++) {
+			ret.add(table.get(buf.getInt(termBase + 4 * (pos + i))));
+		}
+		return ret;
+	}
+
+	private static <C, V> void symbols(KBExp<C, V> e, Map<Pair<C, Integer>, Integer> syms) {
+		if (e.isVar) {
+			return;
+		}
+		KBApp<C, V> a = e.getApp();
+		syms.putIfAbsent(new Pair<>(a.f, a.args.length), syms.size());
+		for (KBExp<C, V> arg : a.args) {
+			symbols(arg, syms);
+		}
+	}
+
+	private static <C, V> int head(KBExp<C, V> e, Map<Pair<C, Integer>, Integer> syms, int n) {
+		return e.isVar ? n : syms.get(new Pair<>(e.getApp().f, e.getApp().args.length));
+	}
+
+	private static <C, V> void flatten(KBExp<C, V> e, Map<Pair<C, Integer>, Integer> syms, Map<V, Integer> vars,
+			List<Integer> ret) {
+		if (e.isVar) {
+			Integer i = vars.get(e.getVar().var);
+			if (i == null) {
+				i = vars.size();
+				vars.put(e.getVar().var, i);
+			}
+			ret.add(-(i + 1));
+			return;
+		}
+		KBApp<C, V> a = e.getApp();
+		ret.add(syms.get(new Pair<>(a.f, a.args.length)));
+		for (KBExp<C, V> arg : a.args) {
+			flatten(arg, syms, vars, ret);
+		}
+	}
+
+	private static <Y> void word(List<Y> w, Map<Y, Integer> syms, List<Integer> ret) {
+		ret.add(w.size());
+		for (Y y : w) {
+			Integer i = syms.get(y);
+			if (i == null) {
+				i = syms.size();
+				syms.put(y, i);
+			}
+			ret.add(i);
+		}
+	}
+
+	private static <C> void write(Path path, int kind, boolean complete, int red_its, int ordering, int varWeight,
+			List<C> table, Function<C, String> name, int[] arity, int[] weights, int[] prec,
+			int[] buckets, int[] ruleTable, int nR, List<Integer> terms) throws IOException {
+		int n = table.size();
+		//each symbol's name is written once, and shared by its entries
+		List<byte[]> names = new ArrayList<>();
+		Map<C, Integer> named = new HashMap<>();
+		int[] nameOff = new int[n], nameLen = new int[n];
+		int off = 0;
+		for (int i = 0; i < n; i++) {
+			Integer j = named.get(table.get(i));
+			if (j != null) {
+				nameOff[i] = nameOff[j];
+				nameLen[i] = nameLen[j];
+				continue;
+			}
+			byte[] b = name.apply(table.get(i)).getBytes(StandardCharsets.UTF_8);
+			named.put(table.get(i), i);
+			names.add(b);
+			nameOff[i] = off;
+			nameLen[i] = b.length;
+			off += b.length;
+		}
+		int termBase = HEADER + 16 * n + 4 * (prec.length + buckets.length + ruleTable.length);
+		int nameBase = termBase + 4 * terms.size();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(nameBase);
+		DataOutputStream out = new DataOutputStream(bytes);
+		for (int x : new int[] { MAGIC, VERSION, kind, complete ? 1 : 0, red_its, ordering, varWeight, n,
+				ruleTable.length / 4, nR, termBase, nameBase }) {
+			out.writeInt(x);
+		}
+		for (int i = 0; i < n; i++) {
+			out.writeInt(arity[i]);
+			out.writeInt(weights[i]);
+			out.writeInt(nameOff[i]);
+			out.writeInt(nameLen[i]);
+		}
+		for (int[] xs : Arrays.asList(prec, buckets, ruleTable)) {
+			for (int x : xs) {
+				out.writeInt(x);
+			}
+		}
+		for (int x : terms) {
+			out.writeInt(x);
+		}
+		for (byte[] b : names) {
+			out.write(b);
+		}
+		out.flush();
+		try (OutputStream file = Files.newOutputStream(path)) {
+			bytes.writeTo(file);
+		}
+	}
+
+}
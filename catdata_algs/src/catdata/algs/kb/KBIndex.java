@@ -0,0 +1,302 @@
+package catdata.algs.kb;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import catdata.algs.kb.KBExp.KBApp;
+
+/**
+ *
+ * Discrimination tree over terms.  Keys are stored as their preorder symbol strings, with
+ * every variable collapsed to a single wildcard, so retrieval returns a superset of the
+ * entries that really match; callers confirm candidates with KBUnifier.
+ * 
+ * A key may also be a pair of terms, stored as the concatenation of their symbol strings, 
+ * which is how equations are indexed for subsumption.  An index should use one kind of key.
+ *
+ * @param <C> type of constant/function symbols
+ * @param <V> type of variables
+ * @param <T> type of values stored at the keys
+ */
+public class KBIndex<C, V, T> {
+
+	private static final class Node<T> {
+		private final int arity;
+		private Node<T> nextArity;
+		private Node<T> star;
+		private Map<Object, Node<T>> funs;
+		private List<T> vals;
+
+		private Node(int arity) {
+			this.arity = arity;
+		}
+
+		private Node<T> fun(Object f, int n) {
+			if (funs == null) {
+				return null;
+			}
+			for (Node<T> c = funs.get(f); c != null; c = c.nextArity) {
+				if (c.arity == n) {
+					return c;
+				}
+			}
+			return null;
+		}
+
+		private Node<T> funOrCreate(Object f, int n) {
+			Node<T> c = fun(f, n);
+			if (c != null) {
+				return c;
+			}
+			if (funs == null) {
+				funs = new HashMap<>();
+			}
+			c = new Node<>(n);
+			c.nextArity = funs.get(f);
+			funs.put(f, c);
+			return c;
+		}
+
+		private boolean isEmpty() {
+			return star == null && (funs == null || funs.isEmpty()) && (vals == null || vals.isEmpty());
+		}
+	}
+
+	private final Node<T> root = new Node<>(0);
+	private int size = 0;
+
+	public int size() {
+		return size;
+	}
+
+	public void put(KBExp<C, V> key, T val) {
+		put(flatten(key), val);
+	}
+
+	public void put(KBExp<C, V> key1, KBExp<C, V> key2, T val) {
+		put(flatten(key1, key2), val);
+	}
+
+	private void put(KBExp<C, V>[] flat, T val) {
+		Node<T> n = root;
+		for (KBExp<C, V> e : flat) {
+			if (e.isVar) {
+				if (n.star == null) {
+					n.star = new Node<>(0);
+				}
+				n = n.star;
+			} else {
+				KBApp<C, V> a = e.getApp();
+				n = n.funOrCreate(a.f, a.args.length);
+			}
+		}
+		if (n.vals == null) {
+			n.vals = new LinkedList<>();
+		}
+		n.vals.add(val);
+		size++;
+	}
+
+	public boolean remove(KBExp<C, V> key, T val) {
+		return remove(flatten(key), val);
+	}
+
+	public boolean remove(KBExp<C, V> key1, KBExp<C, V> key2, T val) {
+		return remove(flatten(key1, key2), val);
+	}
+
+	private boolean remove(KBExp<C, V>[] flat, T val) {
+		boolean ret = remove(root, flat, 0, val);
+		if (ret) {
+			size--;
+		}
+		return ret;
+	}
+
+	private boolean remove(Node<T> n, KBExp<C, V>[] flat, int i, T val) {
+		if (i == flat.length) {
+			return n.vals != null && n.vals.remove(val);
+		}
+		KBExp<C, V> e = flat[i];
+		Node<T> c;
+		if (e.isVar) {
+			c = n.star;
+		} else {
+			c = n.fun(e.getApp().f, e.getApp().args.length);
+		}
+		if (c == null || !remove(c, flat, i + 1, val)) {
+			return false;
+		}
+		if (c.isEmpty()) {
+			if (e.isVar) {
+				n.star = null;
+			} else {
+				unlink(n, e.getApp().f, c);
+			}
+		}
+		return true;
+	}
+
+	private void unlink(Node<T> n, Object f, Node<T> c) {
+		Node<T> head = n.funs.get(f);
+		if (head == c) {
+			if (c.nextArity == null) {
+				n.funs.remove(f);
+			} else {
+				n.funs.put(f, c.nextArity);
+			}
+			return;
+		}
+		for (Node<T> p = head; p != null; p = p.nextArity) {
+			if (p.nextArity == c) {
+				p.nextArity = c.nextArity;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return the values whose keys may have e as an instance
+	 */
+	public List<T> generalizations(KBExp<C, V> e) {
+		List<T> ret = new LinkedList<>();
+		generalizations(root, flatten(e), 0, ret);
+		return ret;
+	}
+
+	/**
+	 * @return the values whose pair keys may have (e1, e2) as an instance
+	 */
+	public List<T> generalizations(KBExp<C, V> e1, KBExp<C, V> e2) {
+		List<T> ret = new LinkedList<>();
+		generalizations(root, flatten(e1, e2), 0, ret);
+		return ret;
+	}
+
+	private void generalizations(Node<T> n, KBExp<C, V>[] q, int i, List<T> ret) {
+		if (i == q.length) {
+			if (n.vals != null) {
+				ret.addAll(n.vals);
+			}
+			return;
+		}
+		KBExp<C, V> e = q[i];
+		if (n.star != null) {
+			generalizations(n.star, q, i + e.size, ret);
+		}
+		if (!e.isVar) {
+			Node<T> c = n.fun(e.getApp().f, e.getApp().args.length);
+			if (c != null) {
+				generalizations(c, q, i + 1, ret);
+			}
+		}
+	}
+
+	/**
+	 * @return the values whose keys may unify with e, treating the variables of e and of
+	 *         the keys as distinct
+	 */
+	public List<T> unifiable(KBExp<C, V> e) {
+		List<T> ret = new LinkedList<>();
+		unifiable(root, flatten(e), 0, ret);
+		return ret;
+	}
+
+	private void unifiable(Node<T> n, KBExp<C, V>[] q, int i, List<T> ret) {
+		if (i == q.length) {
+			if (n.vals != null) {
+				ret.addAll(n.vals);
+			}
+			return;
+		}
+		KBExp<C, V> e = q[i];
+		if (e.isVar) {
+			skipThen(n, 1, q, i + 1, ret, true);
+			return;
+		}
+		if (n.star != null) {
+			unifiable(n.star, q, i + e.size, ret);
+		}
+		Node<T> c = n.fun(e.getApp().f, e.getApp().args.length);
+		if (c != null) {
+			unifiable(c, q, i + 1, ret);
+		}
+	}
+
+	/**
+	 * @return the values whose keys may be instances of e
+	 */
+	public List<T> instances(KBExp<C, V> e) {
+		List<T> ret = new LinkedList<>();
+		instances(root, flatten(e), 0, ret);
+		return ret;
+	}
+
+	private void instances(Node<T> n, KBExp<C, V>[] q, int i, List<T> ret) {
+		if (i == q.length) {
+			if (n.vals != null) {
+				ret.addAll(n.vals);
+			}
+			return;
+		}
+		KBExp<C, V> e = q[i];
+		if (e.isVar) {
+			skipThen(n, 1, q, i + 1, ret, false);
+			return;
+		}
+		Node<T> c = n.fun(e.getApp().f, e.getApp().args.length);
+		if (c != null) {
+			instances(c, q, i + 1, ret);
+		}
+	}
+
+	// skips k complete keys below n, then continues unification, or instance retrieval, at q[i]
+	private void skipThen(Node<T> n, int k, KBExp<C, V>[] q, int i, List<T> ret, boolean unify) {
+		if (k == 0) {
+			if (unify) {
+				unifiable(n, q, i, ret);
+			} else {
+				instances(n, q, i, ret);
+			}
+			return;
+		}
+		if (n.star != null) {
+			skipThen(n.star, k - 1, q, i, ret, unify);
+		}
+		if (n.funs != null) {
+			for (Node<T> c : n.funs.values()) {
+				for (; c != null; c = c.nextArity) {
+					skipThen(c, k - 1 + c.arity, q, i, ret, unify);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the subterms of e in preorder, so that the subterm at position p is at index p
+	 */
+	static <C, V> KBExp<C, V>[] flatten(KBExp<C, V> e) {
+		KBExp<C, V>[] ret = KBExp.newArgs(e.size);
+		flatten(e, ret, 0);
+		return ret;
+	}
+
+	static <C, V> KBExp<C, V>[] flatten(KBExp<C, V> e1, KBExp<C, V> e2) {
+		KBExp<C, V>[] ret = KBExp.newArgs(e1.size + e2.size);
+		flatten(e2, ret, flatten(e1, ret, 0));
+		return ret;
+	}
+
+	private static <C, V> int flatten(KBExp<C, V> e, KBExp<C, V>[] ret, int i) {
+		ret[i++] = e;
+		if (!e.isVar) {
+			for (KBExp<C, V> arg : e.getApp().args) {
+				i = flatten(arg, ret, i);
+			}
+		}
+		return i;
+	}
+
+}
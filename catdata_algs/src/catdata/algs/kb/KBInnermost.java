@@ -0,0 +1,101 @@
+package catdata.algs.kb;
+
+import java.util.Map;
+
+import catdata.algs.kb.KBExp.KBApp;
+
+/**
+ *
+ * Innermost normalization in a single traversal, under a budget of rewrite steps.  KB,
+ * KBSystem and KBMapped all normalize this way, and differ only in how they rewrite a term at
+ * its root.  Arguments are normalized before their parent; after a rewrite at the root only the
+ * contractum is traversed again, and the parts of it that came from the matching substitution
+ * are found in the cache already.
+ *
+ * Every normal form is cached as mapping to itself, which marks it irreducible.
+ *
+ */
+final class KBInnermost {
+
+	/**
+	 * Rewriting at the root of a term.
+	 */
+	interface Step<C, V> {
+
+		/**
+		 * @return e rewritten once at its root, or null if it cannot be
+		 */
+		KBExp<C, V> step1(KBExp<C, V> e);
+
+		/**
+		 * Called after each rewrite step, e.g. to count steps or to check for cancellation.
+		 */
+		default void taken() {
+		}
+
+		/**
+		 * @return what is rewritten with, to end the message of a reduction that runs out of budget
+		 */
+		default String under() {
+			return "";
+		}
+	}
+
+	private KBInnermost() {
+	}
+
+	/**
+	 * @param cache normal forms, added to; only valid while step is unchanged
+	 * @param red_its max rewrite steps per symbol of e
+	 */
+	static <C, V> KBExp<C, V> nf(Map<KBExp<C, V>, KBExp<C, V>> cache, Step<C, V> step, int red_its, KBExp<C, V> e) {
+		int[] budget = new int[] { red_its * e.size };
+		return nf(cache, step, e, e, budget);
+	}
+
+	private static <C, V> KBExp<C, V> nf(Map<KBExp<C, V>, KBExp<C, V>> cache, Step<C, V> step,
+			KBExp<C, V> e0, KBExp<C, V> orig, int[] budget) {
+		KBExp<C, V> e = e0;
+		KBExp<C, V> ret;
+		for (;;) {
+			ret = cache.get(e);
+			if (ret != null) {
+				break;
+			}
+			if (!e.isVar) {
+				KBApp<C, V> a = e.getApp();
+				KBExp<C, V>[] args0 = null;
+				for (int i = 0; i < a.args.length; i++) {
+					KBExp<C, V> arg = nf(cache, step, a.args[i], orig, budget);
+					if (args0 == null && arg != a.args[i]) {
+						args0 = a.args.clone();
+					}
+					if (args0 != null) {
+						args0[i] = arg;
+					}
+				}
+				if (args0 != null) {
+					e = KBExp.mkApp(a.f, args0);
+					ret = cache.get(e);
+					if (ret != null) {
+						break;
+					}
+				}
+			}
+			KBExp<C, V> r = step.step1(e);
+			if (r == null) {
+				ret = e;
+				cache.put(e, e);
+				break;
+			}
+			step.taken();
+			if (--budget[0] < 0) {
+				throw new RuntimeException("Reduction taking too long: " + orig + " goes to " + r + step.under());
+			}
+			e = r;
+		}
+		cache.put(e0, ret);
+		return ret;
+	}
+
+}
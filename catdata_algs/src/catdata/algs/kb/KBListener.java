@@ -0,0 +1,31 @@
+package catdata.algs.kb;
+
+/**
+ *
+ * Receives the metrics of each step of completion, by KB or KB_Thue, on the thread running
+ * completion.  Metrics are only collected while a listener is set and enabled.
+ *
+ * @see KBStepEvent#listener() to record steps as JFR events
+ */
+public interface KBListener {
+
+	/**
+	 * Checked before each step; the step is not measured when false.
+	 */
+	public default boolean isEnabled() {
+		return true;
+	}
+
+	/**
+	 * Called before a measured step.
+	 */
+	public default void started(int step) {
+	}
+
+	/**
+	 * Called after a measured step that returned normally.  Steps that are rolled back are not
+	 * reported.
+	 */
+	public void finished(KBStats stats);
+
+}
@@ -0,0 +1,191 @@
+package catdata.algs.kb;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+import catdata.algs.Pair;
+import catdata.algs.kb.KBExp.KBApp;
+
+/**
+ *
+ * A normalizer over a memory-mapped image written by KBImage.write.  Rules are matched and
+ * instantiated straight from the mapped buffer, which is only ever read with absolute gets, so
+ * loading costs one object per symbol and nf may be called from any number of threads.
+ * Otherwise as KBSystem.
+ *
+ * Symbols not in the image are incomparable to every symbol and, under KBO, weigh varWeight.
+ * A symbol used at several arities has an entry for each, all with its precedence and weight.
+ *
+ * @param <C> type of constant/function symbols
+ * @param <V> type of variables
+ */
+public class KBMapped<C, V> {
+
+	private final ByteBuffer buf;
+	private final C[] syms;
+	//an entry of each symbol, for its precedence and weight
+	private final Map<C, Integer> ids = new HashMap<>();
+	//the entry of each symbol at each arity, or -1
+	private final Map<C, int[]> entries = new HashMap<>();
+	private final int n, termBase, bucketBase, ruleBase, red_its;
+	private final boolean isComplete;
+	private final Function<Pair<KBExp<C, V>, KBExp<C, V>>, Boolean> gt;
+
+	@SuppressWarnings("unchecked")
+	KBMapped(ByteBuffer buf, Function<String, C> symbol) {
+		this.buf = buf;
+		this.n = buf.getInt(28);
+		this.termBase = buf.getInt(40);
+		this.bucketBase = KBImage.bucketBase(buf);
+		this.ruleBase = KBImage.ruleBase(buf);
+		this.isComplete = buf.getInt(12) != 0;
+		this.red_its = buf.getInt(16);
+		this.syms = (C[]) new Object[n];
+		for (int i = 0; i < n; i++) {
+			syms[i] = symbol.apply(KBImage.name(buf, i));
+			ids.putIfAbsent(syms[i], i);
+			int a = buf.getInt(KBImage.symBase() + 16 * i);
+			int[] byArity = entries.get(syms[i]);
+			if (byArity == null || byArity.length <= a) {
+				int[] old = byArity;
+				byArity = new int[a + 1];
+				Arrays.fill(byArity, -1);
+				if (old != null) {
+					System.arraycopy(old, 0, byArity, 0, old.length);
+				}
+				entries.put(syms[i], byArity);
+			}
+			byArity[a] = i;
+		}
+		int precBase = KBImage.precBase(buf), varWeight = buf.getInt(24);
+		Function<Pair<C, C>, Boolean> prec = p -> {
+			Integer i = ids.get(p.first), j = ids.get(p.second);
+			if (i == null || j == null) {
+				return false;
+			}
+			int b = i * n + j;
+			return (buf.getInt(precBase + 4 * (b / 32)) & (1 << (b % 32))) != 0;
+		};
+		switch (buf.getInt(20)) {
+		case KBImage.LPO:
+			gt = KBOrders.lpogt(prec);
+			break;
+		case KBImage.KBO:
+			gt = KBOrders.kbogt(c -> {
+				Integer i = ids.get(c);
+				return i == null ? varWeight : buf.getInt(KBImage.symBase() + 16 * i + 4);
+			}, varWeight, prec);
+			break;
+		default:
+			gt = x -> {
+				throw new RuntimeException("No ordering recorded in image.");
+			};
+		}
+	}
+
+	public boolean isComplete() {
+		return isComplete;
+	}
+
+	/**
+	 * @return the number of rules, including orientations of equations
+	 */
+	public int size() {
+		return buf.getInt(32);
+	}
+
+	public KBExp<C, V> nf(KBExp<C, V> e) {
+		if (!isComplete && !e.vars().isEmpty()) {
+			throw new RuntimeException("Cannot find normal form for incomplete system.");
+		}
+		return KBInnermost.nf(new HashMap<>(), this::step1, red_its, e);
+	}
+
+	public boolean eq(KBExp<C, V> lhs, KBExp<C, V> rhs) {
+		return nf(lhs).equals(nf(rhs));
+	}
+
+	/**
+	 * @return the normal forms of es, in order, computed on pool
+	 */
+	public List<KBExp<C, V>> nf(List<KBExp<C, V>> es, ForkJoinPool pool) {
+		return KB.map(pool, es, this::nf);
+	}
+
+	private KBExp<C, V> step1(KBExp<C, V> e) {
+		int h = e.isVar ? -1 : entry(e.getApp());
+		KBExp<C, V> ret = h == -1 ? null : step1(e, h);
+		return ret != null ? ret : step1(e, n);
+	}
+
+	//the entry of the head symbol of a at its arity, or -1
+	private int entry(KBApp<C, V> a) {
+		int[] byArity = entries.get(a.f);
+		return byArity == null || a.args.length >= byArity.length ? -1 : byArity[a.args.length];
+	}
+
+	//tries the rules in bucket h
+	private KBExp<C, V> step1(KBExp<C, V> e, int h) {
+		int end = buf.getInt(bucketBase + 8 * h + 4);
+		for (int k = buf.getInt(bucketBase + 8 * h); k < end; k++) {
+			int r = ruleBase + 16 * k;
+			KBExp<C, V>[] s = KBExp.newArgs(buf.getInt(r + 8));
+			if (match(new int[] { buf.getInt(r) }, e, s)) {
+				KBExp<C, V> rhs0 = build(new int[] { buf.getInt(r + 4) }, s);
+				if (buf.getInt(r + 12) == 0 || (rhs0 != e && gt.apply(new Pair<>(e, rhs0)))) {
+					return rhs0;
+				}
+			}
+		}
+		return null;
+	}
+
+	//matches the term at pos[0] against e, advancing pos[0] past it
+	private boolean match(int[] pos, KBExp<C, V> e, KBExp<C, V>[] s) {
+		int t = buf.getInt(termBase + 4 * pos[0]++);
+		if (t < 0) {
+			KBExp<C, V> x = s[-t - 1];
+			if (x == null) {
+				s[-t - 1] = e;
+				return true;
+			}
+			return x.equals(e);
+		}
+		if (e.isVar) {
+			return false;
+		}
+		KBApp<C, V> a = e.getApp();
+		if (!a.f.equals(syms[t]) || a.args.length != buf.getInt(KBImage.symBase() + 16 * t)) {
+			return false;
+		}
+		for (KBExp<C, V> arg : a.args) {
+			if (!match(pos, arg, s)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private KBExp<C, V> build(int[] pos, KBExp<C, V>[] s) {
+		int t = buf.getInt(termBase + 4 * pos[0]++);
+		if (t < 0) {
+			return s[-t - 1];
+		}
+		KBExp<C, V>[] args = KBExp.newArgs(buf.getInt(KBImage.symBase() + 16 * t));
+		for (int i = 0; i < args.length; i++) {
+			args[i] = build(pos, s);
+		}
+		return KBExp.mkApp(syms[t], args);
+	}
+
+	@Override
+	public String toString() {
+		return "KBMapped: " + size() + " rules over " + n + " symbols";
+	}
+
+}
@@ -0,0 +1,128 @@
+package catdata.algs.kb;
+
+import java.util.AbstractMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiPredicate;
+import java.util.function.LongSupplier;
+
+/**
+ *
+ * A cache of normal forms that lasts across completion steps, for use as the cache of KB.red.
+ * Each normal form is tagged with the version of the rewrite system it was computed under;
+ * the version grows whenever a rule or equation is added.  When a normal form older than the
+ * current version is looked up, it is checked against only what was added since, and is
+ * dropped if that could rewrite it, or retagged if not.
+ *
+ * The cache holds at most max entries, evicting the least recently used one, or with fifo
+ * the oldest one.  Not thread-safe.
+ *
+ * @param <C> type of constant/function symbols
+ * @param <V> type of variables
+ */
+public class KBNormalForms<C, V> extends AbstractMap<KBExp<C, V>, KBExp<C, V>> {
+
+	private static final class Slot<C, V> {
+		private final KBExp<C, V> nf;
+		private long version;
+
+		private Slot(KBExp<C, V> nf, long version) {
+			this.nf = nf;
+			this.version = version;
+		}
+	}
+
+	private final Map<KBExp<C, V>, Slot<C, V>> slots;
+	private final LongSupplier version;
+	private final BiPredicate<KBExp<C, V>, Long> stale;
+	private long hits = 0, misses = 0;
+
+	/**
+	 * @param max the most entries to keep
+	 * @param fifo evict the oldest entry rather than the least recently used one
+	 * @param version the current version of the rewrite system
+	 * @param stale whether a term may be rewritten by something added after the given version
+	 */
+	public KBNormalForms(int max, boolean fifo, LongSupplier version, BiPredicate<KBExp<C, V>, Long> stale) {
+		this.version = version;
+		this.stale = stale;
+		this.slots = new LinkedHashMap<KBExp<C, V>, Slot<C, V>>(16, 0.75f, !fifo) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<KBExp<C, V>, Slot<C, V>> eldest) {
+				return size() > max;
+			}
+		};
+	}
+
+	@Override
+	public KBExp<C, V> get(Object key) {
+		Slot<C, V> s = slots.get(key);
+		if (s == null) {
+			misses++;
+			return null;
+		}
+		long now = version.getAsLong();
+		if (s.version != now) {
+			if (stale.test(s.nf, s.version)) {
+				slots.remove(key);
+				misses++;
+				return null;
+			}
+			s.version = now;
+		}
+		hits++;
+		return s.nf;
+	}
+
+	@Override
+	public KBExp<C, V> put(KBExp<C, V> key, KBExp<C, V> nf) {
+		Slot<C, V> old = slots.put(key, new Slot<>(nf, version.getAsLong()));
+		return old == null ? null : old.nf;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * @return the number of lookups so far that found a normal form
+	 */
+	public long hits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of lookups so far that did not, stale entries included
+	 */
+	public long misses() {
+		return misses;
+	}
+
+	@Override
+	public int size() {
+		return slots.size();
+	}
+
+	@Override
+	public void clear() {
+		slots.clear();
+	}
+
+	/**
+	 * A copy of the entries, which are not checked for staleness.
+	 */
+	@Override
+	public Set<Map.Entry<KBExp<C, V>, KBExp<C, V>>> entrySet() {
+		Set<Map.Entry<KBExp<C, V>, KBExp<C, V>>> ret = new LinkedHashSet<>();
+		for (Map.Entry<KBExp<C, V>, Slot<C, V>> e : slots.entrySet()) {
+			ret.add(new SimpleImmutableEntry<>(e.getKey(), e.getValue().nf));
+		}
+		return ret;
+	}
+
+}
@@ -1,5 +1,9 @@
 package catdata.algs.kb;
 
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 
 import catdata.algs.Pair;
@@ -9,87 +13,302 @@ import catdata.algs.kb.KBExp.KBApp;
  * 
  * @author Ryan Wisnesky
  *
- * Class for term orderings.  Only contains one, lexicographic path ordering left to right.
+ * Class for term orderings: lexicographic path ordering left to right, and Knuth-Bendix ordering.
  */
 public class KBOrders {
 	
+	public enum Comparison {
+		GREATER, LESS, EQUAL, INCOMPARABLE;
+		
+		public Comparison reverse() {
+			switch (this) {
+			case GREATER:
+				return LESS;
+			case LESS:
+				return GREATER;
+			default:
+				return this;
+			}
+		}
+	}
+	
+	/**
+	 * Lexicographic path ordering.
+	 * 
+	 * @param gt the precedence on symbols
+	 */
 	public static <C, V> Function<Pair<KBExp<C, V>, KBExp<C, V>>, Boolean> lpogt(
 			Function<Pair<C, C>, Boolean> gt) {
-		return new Function<Pair<KBExp<C, V>, KBExp<C, V>>, Boolean>() {
+		BiFunction<KBExp<C, V>, KBExp<C, V>, Comparison> lpo = lpo(gt);
+		return xxx -> lpo.apply(xxx.first, xxx.second) == Comparison.GREATER;
+	}
+	
+	/**
+	 * Lexicographic path ordering as in lpogt, comparing both ways at once.  Comparisons of 
+	 * subterms are memoized during a call, and the results of the last calls are kept, so 
+	 * asking for s > t after t > s is free.  gt must not change once this is called.
+	 */
+	public static <C, V> BiFunction<KBExp<C, V>, KBExp<C, V>, Comparison> lpo(Function<Pair<C, C>, Boolean> gt) {
+		Map<Pair<KBExp<C, V>, KBExp<C, V>>, Comparison> cache = new LinkedHashMap<Pair<KBExp<C, V>, KBExp<C, V>>, Comparison>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
 			@Override
-			public Boolean apply(Pair<KBExp<C, V>, KBExp<C, V>> xxx) {
-				
-				KBExp<C, V> s = xxx.first;
-				KBExp<C, V> t = xxx.second;
+			protected boolean removeEldestEntry(Map.Entry<Pair<KBExp<C, V>, KBExp<C, V>>, Comparison> eldest) {
+				return size() > CACHE_SIZE;
+			}
+		};
+		return (s, t) -> {
+			Pair<KBExp<C, V>, KBExp<C, V>> st = new Pair<>(s, t);
+			Comparison ret;
+			synchronized (cache) {
+				ret = cache.get(st);
+			}
+			if (ret != null) {
+				return ret;
+			}
+			ret = new LPO<C, V>(gt).compare(s, t);
+			synchronized (cache) {
+				cache.put(st, ret);
+				cache.put(new Pair<>(t, s), ret.reverse());
+			}
+			return ret;
+		};
+	}
+	
+	//comparisons kept by lpo; terms are hash-consed, so the keys compare by identity.  Each call
+	//of lpo makes its own cache, captured by the ordering it returns, so results are only ever
+	//shared by the users of one ordering, under one precedence; KB and its KBSystems share one
+	private static final int CACHE_SIZE = 1 << 14;
+	
+	//http://resources.mpi-inf.mpg.de/departments/rg1/teaching/autrea-ss10/script/lecture20.pdf
+	private static final class LPO<C, V> {
+		private final Function<Pair<C, C>, Boolean> gt;
+		private final Map<Pair<KBExp<C, V>, KBExp<C, V>>, Comparison> memo = new HashMap<>();
+		
+		private LPO(Function<Pair<C, C>, Boolean> gt) {
+			this.gt = gt;
+		}
+		
+		private Comparison compare(KBExp<C, V> s, KBExp<C, V> t) {
+			if (s == t) {
+				return Comparison.EQUAL;
+			}
+			//LPO1
+			if (t.isVar) {
+				return s.vars().contains(t.getVar().var) ? Comparison.GREATER : Comparison.INCOMPARABLE;
+			}
+			if (s.isVar) {
+				//TODO: KB will fail on var = const
+				return t.vars().contains(s.getVar().var) ? Comparison.LESS : Comparison.INCOMPARABLE;
+			}
+			Pair<KBExp<C, V>, KBExp<C, V>> st = new Pair<>(s, t);
+			Comparison ret = memo.get(st);
+			if (ret == null) {
+				ret = compareApps(s.getApp(), t.getApp());
+				memo.put(st, ret);
+			}
+			return ret;
+		}
+		
+		private Comparison compareApps(KBApp<C, V> s, KBApp<C, V> t) {
+			//LPO2a
+			for (KBExp<C, V> si : s.args) {
+				Comparison c = compare(si, t);
+				if (c == Comparison.GREATER || c == Comparison.EQUAL) {
+					return Comparison.GREATER;
+				}
+			}
+			for (KBExp<C, V> ti : t.args) {
+				Comparison c = compare(s, ti);
+				if (c == Comparison.LESS || c == Comparison.EQUAL) {
+					return Comparison.LESS;
+				}
+			}
 
-				//http://resources.mpi-inf.mpg.de/departments/rg1/teaching/autrea-ss10/script/lecture20.pdf
-				
-				//LPO1
-				if (t.isVar) {
-					return !t.equals(s) && s.vars().contains(t.getVar().var);
+			//LPO2b
+			if (gt.apply(new Pair<>(s.f, t.f))) {
+				return greaterThanArgs(s, t, 0);
+			}
+			if (gt.apply(new Pair<>(t.f, s.f))) {
+				return greaterThanArgs(t, s, 0).reverse();
+			}
+			
+			//LPO2c
+			if (!s.f.equals(t.f) || s.args.length != t.args.length) {
+				return Comparison.INCOMPARABLE;
+			}
+			for (int i = 0; i < s.args.length; i++) {
+				Comparison c = compare(s.args[i], t.args[i]);
+				if (c == Comparison.GREATER) {
+					return greaterThanArgs(s, t, i + 1);
+				}
+				if (c == Comparison.LESS) {
+					return greaterThanArgs(t, s, i + 1).reverse();
 				}
-				if (s.isVar) {
-					//TODO: KB will fail on var = const
-					//if (DEBUG.debug.opl_david) {
-						//if (t.vars().isEmpty()) {
-							//return true;
-						//}
-					//}
-					return false;
-				} 
+				if (c == Comparison.INCOMPARABLE) {
+					return Comparison.INCOMPARABLE;
+				}
+			}
+			return Comparison.EQUAL;
+		}
+		
+		//GREATER if s is greater than the arguments of t from i on, which is all that is left to show 
+		private Comparison greaterThanArgs(KBApp<C, V> s, KBApp<C, V> t, int i) {
+			for (; i < t.args.length; i++) {
+				if (compare(s, t.args[i]) != Comparison.GREATER) {
+					return Comparison.INCOMPARABLE;
+				}
+			}
+			return Comparison.GREATER;
+		}
+	}
 
-				//LPO2
-				KBApp<C, V> s0 = s.getApp();
-				KBApp<C, V> t0 = t.getApp();
-				C f = s0.f;
-				C g = t0.f;
+	/**
+	 * Knuth-Bendix ordering.  The weights must be admissible: varWeight is positive, no constant
+	 * weighs less than varWeight, and a unary symbol of weight 0 is greater than every other symbol.
+	 * 
+	 * @param weight the weight of each symbol
+	 * @param varWeight the weight of every variable
+	 * @param gt the precedence on symbols
+	 */
+	public static <C, V> Function<Pair<KBExp<C, V>, KBExp<C, V>>, Boolean> kbogt(
+			Function<C, Integer> weight, int varWeight, Function<Pair<C, C>, Boolean> gt) {
+		BiFunction<KBExp<C, V>, KBExp<C, V>, Comparison> kbo = kbo(weight, varWeight, gt);
+		return xxx -> kbo.apply(xxx.first, xxx.second) == Comparison.GREATER;
+	}
+	
+	/**
+	 * Knuth-Bendix ordering as in kbogt, comparing both ways at once in time linear in the 
+	 * size of the terms.
+	 */
+	public static <C, V> BiFunction<KBExp<C, V>, KBExp<C, V>, Comparison> kbo(
+			Function<C, Integer> weight, int varWeight, Function<Pair<C, C>, Boolean> gt) {
+		return (s, t) -> new KBO<C, V>(weight, varWeight, gt).compare(s, t);
+	}
+	
+	/**
+	 * Loechner's linear KBO, from "Things to know when implementing KBO" (2006).  The weight 
+	 * difference and the variable balance (occurrences in s minus occurrences in t, for each 
+	 * variable) are accumulated over a single traversal.  Recursion only descends into the first 
+	 * pair of arguments that are not equal, and equal arguments balance out, so when a pair of 
+	 * subterms is decided the balance is exactly that of the pair.
+	 */
+	private static final class KBO<C, V> {
+		private final Function<C, Integer> weight;
+		private final int varWeight;
+		private final Function<Pair<C, C>, Boolean> gt;
+		
+		private final Map<V, int[]> balance = new HashMap<>();
+		private int pos = 0; //variables occurring more often in s
+		private int neg = 0; //variables occurring more often in t
+		private long wb = 0;
 
-				//LPO2a
-				for (KBExp<C, V> si : s0.args) {
-					if (apply(new Pair<>(si, t)) || si.equals(t)) {
-						return true;
-					}
+		private KBO(Function<C, Integer> weight, int varWeight, Function<Pair<C, C>, Boolean> gt) {
+			this.weight = weight;
+			this.varWeight = varWeight;
+			this.gt = gt;
+		}
+		
+		private Comparison compare(KBExp<C, V> s, KBExp<C, V> t) {
+			if (s == t) {
+				return Comparison.EQUAL;
+			}
+			if (s.isVar) {
+				V x = s.getVar().var;
+				boolean occurs = add(t, -1, x);
+				add(x, 1);
+				return occurs ? Comparison.LESS : Comparison.INCOMPARABLE;
+			}
+			if (t.isVar) {
+				V y = t.getVar().var;
+				boolean occurs = add(s, 1, y);
+				add(y, -1);
+				return occurs ? Comparison.GREATER : Comparison.INCOMPARABLE;
+			}
+			
+			KBApp<C, V> s0 = s.getApp();
+			KBApp<C, V> t0 = t.getApp();
+			Comparison lex = null;
+			int i = 0;
+			if (s0.f.equals(t0.f) && s0.args.length == t0.args.length) {
+				lex = Comparison.EQUAL;
+				while (lex == Comparison.EQUAL && i < s0.args.length) {
+					lex = compare(s0.args[i], t0.args[i]);
+					i++;
 				}
+			}
+			for (int j = i; j < s0.args.length; j++) {
+				add(s0.args[j], 1, null);
+			}
+			for (int j = i; j < t0.args.length; j++) {
+				add(t0.args[j], -1, null);
+			}
+			wb += weight.apply(s0.f) - weight.apply(t0.f);
+			
+			if (wb > 0) {
+				return neg == 0 ? Comparison.GREATER : Comparison.INCOMPARABLE;
+			}
+			if (wb < 0) {
+				return pos == 0 ? Comparison.LESS : Comparison.INCOMPARABLE;
+			}
+			if (gt.apply(new Pair<>(s0.f, t0.f))) {
+				return neg == 0 ? Comparison.GREATER : Comparison.INCOMPARABLE;
+			}
+			if (gt.apply(new Pair<>(t0.f, s0.f))) {
+				return pos == 0 ? Comparison.LESS : Comparison.INCOMPARABLE;
+			}
+			if (lex == Comparison.GREATER) {
+				return neg == 0 ? Comparison.GREATER : Comparison.INCOMPARABLE;
+			}
+			if (lex == Comparison.LESS) {
+				return pos == 0 ? Comparison.LESS : Comparison.INCOMPARABLE;
+			}
+			return lex == Comparison.EQUAL ? Comparison.EQUAL : Comparison.INCOMPARABLE;
+		}
+		
+		/**
+		 * Adds the weight and variables of e to the balance, negated if sign is -1.  
+		 * 
+		 * @return true if x occurs in e
+		 */
+		private boolean add(KBExp<C, V> e, int sign, V x) {
+			if (e.isVar) {
+				V v = e.getVar().var;
+				add(v, sign);
+				return v.equals(x);
+			}
+			KBApp<C, V> a = e.getApp();
+			wb += sign * weight.apply(a.f);
+			boolean occurs = false;
+			for (KBExp<C, V> arg : a.args) {
+				occurs |= add(arg, sign, x);
+			}
+			return occurs;
+		}
 
-				//LPO2b
-				if (gt.apply(new Pair<>(f, g))) { 
-					for (KBExp<C, V> ti : t0.args) {
-						if (!apply(new Pair<>(s, ti))) {
-							return false;
-						}
-					}
-					return true;
-				} 
-				
-				//LPO2c
-				if (f.equals(g)) {
-					for (KBExp<C, V> ti : t0.args) {
-						if (!this.apply(new Pair<>(s0, ti))) {
-							return false;
-						}
-					}
-					int i = 0;
-					for (KBExp<C, V> si : s0.args) {
-						if (i > t0.args.size()) {
-							return false;
-						}
-						KBExp<C, V> ti = t0.args.get(i++);
-						if (this.apply(new Pair<>(si, ti))) {
-							return true;
-						}
-						if (this.apply(new Pair<>(ti, si))) {
-							return false;
-						}
-						if (si.equals(ti)) {
-							continue;
-						}
-						return false;
-					}
+		private void add(V v, int sign) {
+			wb += sign * varWeight;
+			int[] n = balance.get(v);
+			if (n == null) {
+				n = new int[1];
+				balance.put(v, n);
+			}
+			int old = n[0];
+			n[0] += sign;
+			if (old == 0) {
+				if (sign > 0) {
+					pos++;
+				} else {
+					neg++;
+				}
+			} else if (n[0] == 0) {
+				if (old > 0) {
+					pos--;
+				} else {
+					neg--;
 				}
-				return false;
 			}
-		};
+		}
 	}
-
 	
 }
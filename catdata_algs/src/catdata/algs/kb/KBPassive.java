@@ -0,0 +1,257 @@
+package catdata.algs.kb;
+
+import java.util.AbstractCollection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import catdata.algs.Pair;
+
+/**
+ *
+ * The passive set of unoriented equations, with hashed membership and a priority queue for
+ * given-clause selection.  Each equation is weighed once, when it is added.  pick returns
+ * the lightest equation, except that every ageRatio-th pick returns the oldest one.  With
+ * orientableFirst, orientable equations always come before unorientable ones.  A null
+ * weight makes selection first-in first-out.
+ *
+ * Iteration is in insertion order, in which restore puts an equation back where it was.  add,
+ * remove, restore, requeue and pick are O(log n).
+ *
+ * @param <C> type of constant/function symbols
+ * @param <V> type of variables
+ */
+public class KBPassive<C, V> extends AbstractCollection<Pair<KBExp<C, V>, KBExp<C, V>>> {
+
+	/**
+	 * Symbol-counting weight: the number of positions on both sides.
+	 */
+	public static <C, V> ToIntFunction<Pair<KBExp<C, V>, KBExp<C, V>>> symbolCount() {
+		return e -> e.first.size + e.second.size;
+	}
+
+	private static final class Entry<C, V> {
+		private final Pair<KBExp<C, V>, KBExp<C, V>> eq;
+		private final int weight;
+		private final boolean orientable;
+		private long age;
+		private final long seq;
+
+		private Entry(Pair<KBExp<C, V>, KBExp<C, V>> eq, int weight, boolean orientable, long age, long seq) {
+			this.eq = eq;
+			this.weight = weight;
+			this.orientable = orientable;
+			this.age = age;
+			this.seq = seq;
+		}
+	}
+
+	private final Map<Pair<KBExp<C, V>, KBExp<C, V>>, Entry<C, V>> members = new HashMap<>();
+	//members by insertion sequence number, for iteration
+	private final TreeMap<Long, Entry<C, V>> inserted = new TreeMap<>();
+	private final TreeSet<Entry<C, V>> byWeight;
+	private final TreeSet<Entry<C, V>> byAge;
+
+	private final Function<Pair<KBExp<C, V>, KBExp<C, V>>, Boolean> orientable;
+	private final ToIntFunction<Pair<KBExp<C, V>, KBExp<C, V>>> weight;
+	private final int ageRatio;
+	private final boolean orientableFirst;
+
+	private long newest = 0;
+	private long oldest = 0;
+	private long seqs = 0;
+	private int picks = 0;
+	private int orientableCount = 0;
+
+	/**
+	 * @param orientable whether an equation can be oriented by the ordering
+	 * @param weight the weight of an equation, or null for first-in first-out
+	 * @param ageRatio pick the oldest equation every ageRatio picks, or never if 0
+	 * @param orientableFirst prefer orientable equations regardless of weight and age
+	 */
+	public KBPassive(Function<Pair<KBExp<C, V>, KBExp<C, V>>, Boolean> orientable,
+			ToIntFunction<Pair<KBExp<C, V>, KBExp<C, V>>> weight, int ageRatio, boolean orientableFirst) {
+		this.orientable = orientable;
+		this.weight = weight;
+		this.ageRatio = ageRatio;
+		this.orientableFirst = orientableFirst;
+		Comparator<Entry<C, V>> first = (x, y) -> orientableFirst ? Boolean.compare(y.orientable, x.orientable) : 0;
+		this.byAge = new TreeSet<>(first.thenComparingLong(x -> x.age));
+		this.byWeight = new TreeSet<>(first.thenComparingInt((Entry<C, V> x) -> x.weight).thenComparingLong(x -> x.age));
+	}
+
+	@Override
+	public int size() {
+		return members.size();
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return members.containsKey(o);
+	}
+
+	/**
+	 * Adds eq as the newest equation, if it is not already present.
+	 */
+	@Override
+	public boolean add(Pair<KBExp<C, V>, KBExp<C, V>> eq) {
+		return add(eq, ++newest, ++seqs);
+	}
+
+	/**
+	 * Adds eq as the oldest equation, if it is not already present.
+	 */
+	public boolean addFront(Pair<KBExp<C, V>, KBExp<C, V>> eq) {
+		return add(eq, --oldest, ++seqs);
+	}
+
+	private boolean add(Pair<KBExp<C, V>, KBExp<C, V>> eq, long age, long seq) {
+		if (members.containsKey(eq)) {
+			return false;
+		}
+		Entry<C, V> x = new Entry<>(eq, weight == null ? 0 : weight.applyAsInt(eq), orientable.apply(eq), age, seq);
+		members.put(eq, x);
+		inserted.put(seq, x);
+		insert(x);
+		if (x.orientable) {
+			orientableCount++;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		Entry<C, V> x = members.remove(o);
+		if (x == null) {
+			return false;
+		}
+		inserted.remove(x.seq);
+		delete(x);
+		if (x.orientable) {
+			orientableCount--;
+		}
+		return true;
+	}
+
+	/**
+	 * Adds eq with the given age and place in iteration order, as returned by age and seq, if it
+	 * is not already present.  No other present equation may have that place.
+	 */
+	public boolean restore(Pair<KBExp<C, V>, KBExp<C, V>> eq, long age, long seq) {
+		return add(eq, age, seq);
+	}
+
+	/**
+	 * @return the age of eq, which must be present; smaller is older
+	 */
+	public long age(Pair<KBExp<C, V>, KBExp<C, V>> eq) {
+		return members.get(eq).age;
+	}
+
+	/**
+	 * @return the place of eq, which must be present, in iteration order
+	 */
+	public long seq(Pair<KBExp<C, V>, KBExp<C, V>> eq) {
+		return members.get(eq).seq;
+	}
+
+	/**
+	 * @return an action setting the counters that ages, places and age-ratio picks are drawn from
+	 * back to their current values, for rolling back changes undone with remove and restore
+	 */
+	public Runnable counters() {
+		long newest0 = newest, oldest0 = oldest, seqs0 = seqs;
+		int picks0 = picks;
+		return () -> {
+			newest = newest0;
+			oldest = oldest0;
+			seqs = seqs0;
+			picks = picks0;
+		};
+	}
+
+	/**
+	 * Moves eq behind every other equation of the same priority.
+	 */
+	public void requeue(Pair<KBExp<C, V>, KBExp<C, V>> eq) {
+		Entry<C, V> x = members.get(eq);
+		if (x == null) {
+			return;
+		}
+		delete(x);
+		x.age = ++newest;
+		insert(x);
+	}
+
+	/**
+	 * @return the next given equation, without removing it, or null if empty
+	 */
+	public Pair<KBExp<C, V>, KBExp<C, V>> pick() {
+		if (members.isEmpty()) {
+			return null;
+		}
+		picks++;
+		if (weight == null || (ageRatio > 0 && picks % ageRatio == 0)) {
+			return byAge.first().eq;
+		}
+		return byWeight.first().eq;
+	}
+
+	public boolean isOrientable(Pair<KBExp<C, V>, KBExp<C, V>> eq) {
+		Entry<C, V> x = members.get(eq);
+		return x == null ? orientable.apply(eq) : x.orientable;
+	}
+
+	public int orientableCount() {
+		return orientableCount;
+	}
+
+	private void insert(Entry<C, V> x) {
+		byAge.add(x);
+		if (weight != null) {
+			byWeight.add(x);
+		}
+	}
+
+	private void delete(Entry<C, V> x) {
+		byAge.remove(x);
+		if (weight != null) {
+			byWeight.remove(x);
+		}
+	}
+
+	@Override
+	public Iterator<Pair<KBExp<C, V>, KBExp<C, V>>> iterator() {
+		Iterator<Entry<C, V>> it = inserted.values().iterator();
+		return new Iterator<Pair<KBExp<C, V>, KBExp<C, V>>>() {
+			private Entry<C, V> last;
+
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			@Override
+			public Pair<KBExp<C, V>, KBExp<C, V>> next() {
+				last = it.next();
+				return last.eq;
+			}
+
+			@Override
+			public void remove() {
+				it.remove();
+				members.remove(last.eq);
+				delete(last);
+				if (last.orientable) {
+					orientableCount--;
+				}
+			}
+		};
+	}
+
+}
@@ -0,0 +1,82 @@
+package catdata.algs.kb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * The metrics of one step of completion, as passed to KBListener.finished.  Counters may be
+ * added to from the threads of a parallel step; once reported, a KBStats does not change.
+ */
+public class KBStats {
+
+	public enum Counter {
+		/** wall-clock time of the step, and of computing and of inter-reducing critical pairs */
+		STEP_NANOS, CP_NANOS, INTERREDUCE_NANOS,
+		/** critical pairs computed, dropped as instances of known equations, and joined */
+		CPS, CPS_SUBSUMED, CPS_JOINED,
+		/** rules added by orientation, replaced by reducing their right-hand sides, and collapsed into E */
+		RULES_ADDED, RULES_COMPOSED, RULES_COLLAPSED,
+		/** rewrite steps taken */
+		REWRITES,
+		/** calls to the ordering */
+		ORDERINGS,
+		/** unifications tried for critical pairs, and those that succeeded */
+		UNIFICATIONS, UNIFIERS,
+		/** matchings tried for rewriting, and those that succeeded */
+		MATCHES, MATCHERS,
+		/** lookups in the normal form caches that hit and missed */
+		CACHE_HITS, CACHE_MISSES,
+		/** sizes after the step: E (or the equal-length rules of KB_Thue), R, and the overlaps tried */
+		SIZE_E, SIZE_R, SIZE_SEEN,
+		/** heap in use after the step, approximately */
+		HEAP_BYTES
+	}
+
+	public final int step;
+	private final LongAdder[] counters = new LongAdder[Counter.values().length];
+
+	KBStats(int step) {
+		this.step = step;
+		for (int i = 0; i < counters.length; i++) {
+			counters[i] = new LongAdder();
+		}
+	}
+
+	void inc(Counter c) {
+		counters[c.ordinal()].increment();
+	}
+
+	void add(Counter c, long n) {
+		counters[c.ordinal()].add(n);
+	}
+
+	public long get(Counter c) {
+		return counters[c.ordinal()].sum();
+	}
+
+	/**
+	 * @return the fraction of normal form cache lookups that hit, or 0 if there were none
+	 */
+	public double cacheHitRate() {
+		long hits = get(Counter.CACHE_HITS), total = hits + get(Counter.CACHE_MISSES);
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	//the heap in use, for HEAP_BYTES
+	static long heap() {
+		Runtime rt = Runtime.getRuntime();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	@Override
+	public String toString() {
+		List<String> a = new ArrayList<>();
+		for (Counter c : Counter.values()) {
+			a.add(c.name().toLowerCase() + "=" + get(c));
+		}
+		return "step " + step + ": " + KB.sep(a, " ");
+	}
+
+}
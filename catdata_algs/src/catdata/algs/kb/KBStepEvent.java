@@ -0,0 +1,140 @@
+package catdata.algs.kb;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import catdata.algs.kb.KBStats.Counter;
+
+/**
+ *
+ * A step of completion, as a JFR event.  The event spans the step and carries its KBStats.
+ */
+@Name("catdata.kb.Step")
+@Label("Completion Step")
+@Category({ "catdata", "Knuth-Bendix" })
+public class KBStepEvent extends Event {
+
+	@Label("Step")
+	public int step;
+
+	@Label("Critical Pair Time")
+	@Timespan(Timespan.NANOSECONDS)
+	public long cpNanos;
+
+	@Label("Inter-reduction Time")
+	@Timespan(Timespan.NANOSECONDS)
+	public long interreduceNanos;
+
+	@Label("Critical Pairs")
+	public long cps;
+
+	@Label("Critical Pairs Subsumed")
+	public long cpsSubsumed;
+
+	@Label("Critical Pairs Joined")
+	public long cpsJoined;
+
+	@Label("Rules Added")
+	public long rulesAdded;
+
+	@Label("Rules Composed")
+	public long rulesComposed;
+
+	@Label("Rules Collapsed")
+	public long rulesCollapsed;
+
+	@Label("Rewrite Steps")
+	public long rewrites;
+
+	@Label("Ordering Calls")
+	public long orderings;
+
+	@Label("Unifications")
+	public long unifications;
+
+	@Label("Unifiers")
+	public long unifiers;
+
+	@Label("Matches")
+	public long matches;
+
+	@Label("Matchers")
+	public long matchers;
+
+	@Label("Cache Hits")
+	public long cacheHits;
+
+	@Label("Cache Misses")
+	public long cacheMisses;
+
+	@Label("Equations")
+	public long sizeE;
+
+	@Label("Rules")
+	public long sizeR;
+
+	@Label("Overlaps Tried")
+	public long sizeSeen;
+
+	@Label("Heap Used")
+	@DataAmount
+	public long heap;
+
+	/**
+	 * @return a listener committing an event per step.  It holds the event of the step in
+	 * progress, so each KB or KB_Thue needs its own.  Steps are only measured while the event
+	 * is enabled in a recording.
+	 */
+	public static KBListener listener() {
+		return new KBListener() {
+			private KBStepEvent event;
+
+			@Override
+			public boolean isEnabled() {
+				return new KBStepEvent().isEnabled();
+			}
+
+			@Override
+			public void started(int step) {
+				event = new KBStepEvent();
+				event.begin();
+			}
+
+			@Override
+			public void finished(KBStats s) {
+				KBStepEvent e = event;
+				event = null;
+				if (e == null || !e.shouldCommit()) {
+					return;
+				}
+				e.step = s.step;
+				e.cpNanos = s.get(Counter.CP_NANOS);
+				e.interreduceNanos = s.get(Counter.INTERREDUCE_NANOS);
+				e.cps = s.get(Counter.CPS);
+				e.cpsSubsumed = s.get(Counter.CPS_SUBSUMED);
+				e.cpsJoined = s.get(Counter.CPS_JOINED);
+				e.rulesAdded = s.get(Counter.RULES_ADDED);
+				e.rulesComposed = s.get(Counter.RULES_COMPOSED);
+				e.rulesCollapsed = s.get(Counter.RULES_COLLAPSED);
+				e.rewrites = s.get(Counter.REWRITES);
+				e.orderings = s.get(Counter.ORDERINGS);
+				e.unifications = s.get(Counter.UNIFICATIONS);
+				e.unifiers = s.get(Counter.UNIFIERS);
+				e.matches = s.get(Counter.MATCHES);
+				e.matchers = s.get(Counter.MATCHERS);
+				e.cacheHits = s.get(Counter.CACHE_HITS);
+				e.cacheMisses = s.get(Counter.CACHE_MISSES);
+				e.sizeE = s.get(Counter.SIZE_E);
+				e.sizeR = s.get(Counter.SIZE_R);
+				e.sizeSeen = s.get(Counter.SIZE_SEEN);
+				e.heap = s.get(Counter.HEAP_BYTES);
+				e.commit();
+			}
+		};
+	}
+
+}
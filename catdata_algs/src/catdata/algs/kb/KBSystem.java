@@ -0,0 +1,159 @@
+package catdata.algs.kb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+import catdata.algs.Pair;
+
+/**
+ *
+ * A read-only snapshot of a completed (or ground completed) rewrite system, as taken by
+ * KB.snapshot.  Nothing is modified after construction, so nf and eq may be called from any
+ * number of threads, provided the ordering is thread-safe, as those in KBOrders are.
+ *
+ * Normal forms are computed innermost-first with a cache private to each call.  With
+ * unorientable equations, rewriting with them is ordered, and only ground terms have normal forms.
+ *
+ * @param <C> type of constant/function symbols
+ * @param <V> type of variables
+ */
+public class KBSystem<C, V> {
+
+	private final List<Pair<KBExp<C, V>, KBExp<C, V>>> R;
+	private final List<Pair<KBExp<C, V>, KBExp<C, V>>> E;
+	private final KBIndex<C, V, Pair<KBExp<C, V>, KBExp<C, V>>> Ridx;
+	//both orientations of E, except those no instance of which is decreasing
+	private final KBIndex<C, V, Pair<KBExp<C, V>, KBExp<C, V>>> Eidx;
+	private final Function<Pair<KBExp<C, V>, KBExp<C, V>>, Boolean> gt;
+	private final boolean isComplete;
+	private final int red_its;
+	//selects rules in place of Ridx, once compiled
+	private final KBAutomaton<C, V, Pair<KBExp<C, V>, KBExp<C, V>>> Rauto;
+
+	KBSystem(Collection<Pair<KBExp<C, V>, KBExp<C, V>>> R, Collection<Pair<KBExp<C, V>, KBExp<C, V>>> E,
+			Function<Pair<KBExp<C, V>, KBExp<C, V>>, Boolean> gt, boolean isComplete, int red_its) {
+		this.R = Collections.unmodifiableList(new ArrayList<>(R));
+		this.E = Collections.unmodifiableList(new ArrayList<>(E));
+		this.gt = gt;
+		this.isComplete = isComplete;
+		this.red_its = red_its;
+		this.Ridx = new KBIndex<>();
+		this.Eidx = new KBIndex<>();
+		this.Rauto = null;
+		for (Pair<KBExp<C, V>, KBExp<C, V>> r : this.R) {
+			Ridx.put(r.first, r);
+		}
+		for (Pair<KBExp<C, V>, KBExp<C, V>> e : this.E) {
+			for (Pair<KBExp<C, V>, KBExp<C, V>> x : Arrays.asList(e, e.reverse())) {
+				if (!gt.apply(x.reverse()) && x.first.vars().containsAll(x.second.vars())) {
+					Eidx.put(x.first, x);
+				}
+			}
+		}
+	}
+
+	private KBSystem(KBSystem<C, V> sys) {
+		this.R = sys.R;
+		this.E = sys.E;
+		this.gt = sys.gt;
+		this.isComplete = sys.isComplete;
+		this.red_its = sys.red_its;
+		this.Ridx = sys.Ridx;
+		this.Eidx = sys.Eidx;
+		this.Rauto = new KBAutomaton<>(R, r -> r.first);
+	}
+
+	/**
+	 * @return this system, but selecting rules with a matching automaton over their left-hand
+	 * sides, which reads each subject once however many rules there are.  Worth it for systems
+	 * that answer many queries.
+	 */
+	public KBSystem<C, V> compile() {
+		return Rauto == null ? new KBSystem<>(this) : this;
+	}
+
+	public List<Pair<KBExp<C, V>, KBExp<C, V>>> getRules() {
+		return R;
+	}
+
+	public List<Pair<KBExp<C, V>, KBExp<C, V>>> getEquations() {
+		return E;
+	}
+
+	public boolean isComplete() {
+		return isComplete;
+	}
+
+	Function<Pair<KBExp<C, V>, KBExp<C, V>>, Boolean> gt() {
+		return gt;
+	}
+
+	int red_its() {
+		return red_its;
+	}
+
+	public KBExp<C, V> nf(KBExp<C, V> e) {
+		if (!isComplete && !e.vars().isEmpty()) {
+			throw new RuntimeException("Cannot find normal form for incomplete system.");
+		}
+		return KBInnermost.nf(new HashMap<>(), this::step1, red_its, e);
+	}
+
+	public boolean eq(KBExp<C, V> lhs, KBExp<C, V> rhs) {
+		return nf(lhs).equals(nf(rhs));
+	}
+
+	/**
+	 * @return the normal forms of es, in order, computed on pool
+	 */
+	public List<KBExp<C, V>> nf(List<KBExp<C, V>> es, ForkJoinPool pool) {
+		return KB.map(pool, es, this::nf);
+	}
+
+	/**
+	 * @return for each pair in eqs, in order, whether its sides are equal, computed on pool
+	 */
+	public List<Boolean> eq(List<Pair<KBExp<C, V>, KBExp<C, V>>> eqs, ForkJoinPool pool) {
+		return KB.map(pool, eqs, x -> eq(x.first, x.second));
+	}
+
+	private KBExp<C, V> step1(KBExp<C, V> e) {
+		for (Pair<KBExp<C, V>, KBExp<C, V>> r : Rauto == null ? Ridx.generalizations(e) : Rauto.match(e)) {
+			Map<V, KBExp<C, V>> s = KBUnifier.findSubst(r.first, e);
+			if (s != null) {
+				return r.second.subst(s);
+			}
+		}
+		for (Pair<KBExp<C, V>, KBExp<C, V>> r : Eidx.generalizations(e)) {
+			Map<V, KBExp<C, V>> s = KBUnifier.findSubst(r.first, e);
+			if (s == null) {
+				continue;
+			}
+			KBExp<C, V> rhs0 = r.second.subst(s);
+			if (rhs0 != e && gt.apply(new Pair<>(e, rhs0))) {
+				return rhs0;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		List<String> a = new ArrayList<>();
+		for (Pair<KBExp<C, V>, KBExp<C, V>> x : E) {
+			a.add(x.first + " = " + x.second);
+		}
+		for (Pair<KBExp<C, V>, KBExp<C, V>> x : R) {
+			a.add(x.first + " -> " + x.second);
+		}
+		return KB.sep(a, "\n");
+	}
+
+}
@@ -0,0 +1,193 @@
+package catdata.algs.kb;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+import catdata.algs.kb.KBExp.KBApp;
+import catdata.algs.kb.KBExp.KBVar;
+
+/**
+ *
+ * Hash-consing table for terms.  Every KBVar and KBApp is created here, so two terms are
+ * structurally equal iff they are the same instance.  Arguments of an application are
+ * already interned, so probing compares them by reference.
+ *
+ * Entries are weak: terms no longer referenced from anywhere else are reclaimed by the
+ * garbage collector and purged from the table lazily.  The table is split into segments
+ * that are locked independently.
+ *
+ */
+final class KBTermBank {
+
+	private static final int SEGMENTS = 64;
+
+	private static final Segment[] segments = new Segment[SEGMENTS];
+	static {
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment();
+		}
+	}
+
+	private KBTermBank() {
+	}
+
+	static int varHash(Object var) {
+		return mix(var == null ? 0 : var.hashCode());
+	}
+
+	static int appHash(Object f, KBExp<?, ?>[] args) {
+		int result = 31 + (f == null ? 0 : f.hashCode());
+		for (KBExp<?, ?> arg : args) {
+			result = 31 * result + arg.hashCode();
+		}
+		return mix(result);
+	}
+
+	private static int mix(int h) {
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return h;
+	}
+
+	private static Segment segment(int hash) {
+		return segments[(hash >>> 26) & (SEGMENTS - 1)];
+	}
+
+	@SuppressWarnings("unchecked")
+	static <C, V> KBVar<C, V> var(V v) {
+		int hash = varHash(v);
+		Segment seg = segment(hash);
+		synchronized (seg) {
+			KBExp<?, ?> found = seg.findVar(hash, v);
+			if (found != null) {
+				return (KBVar<C, V>) found;
+			}
+			KBVar<C, V> ret = new KBVar<>(v, hash);
+			seg.put(hash, ret);
+			return ret;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	static <C, V> KBApp<C, V> app(C f, KBExp<C, V>[] args) {
+		int hash = appHash(f, args);
+		Segment seg = segment(hash);
+		synchronized (seg) {
+			KBExp<?, ?> found = seg.findApp(hash, f, args);
+			if (found != null) {
+				return (KBApp<C, V>) found;
+			}
+			KBApp<C, V> ret = new KBApp<>(f, args, hash);
+			seg.put(hash, ret);
+			return ret;
+		}
+	}
+
+	// //////////////////////////////////////////////////////////////////////////////////////////////////
+
+	private static final class Entry extends WeakReference<KBExp<?, ?>> {
+		final int hash;
+		Entry next;
+
+		Entry(KBExp<?, ?> e, int hash, Entry next, ReferenceQueue<KBExp<?, ?>> q) {
+			super(e, q);
+			this.hash = hash;
+			this.next = next;
+		}
+	}
+
+	private static final class Segment {
+		private final ReferenceQueue<KBExp<?, ?>> queue = new ReferenceQueue<>();
+		private Entry[] table = new Entry[256];
+		private int size = 0;
+
+		KBExp<?, ?> findVar(int hash, Object v) {
+			purge();
+			for (Entry e = table[hash & (table.length - 1)]; e != null; e = e.next) {
+				if (e.hash != hash) {
+					continue;
+				}
+				KBExp<?, ?> x = e.get();
+				if (x != null && x.isVar) {
+					Object w = ((KBVar<?, ?>) x).var;
+					if (v == null ? w == null : v.equals(w)) {
+						return x;
+					}
+				}
+			}
+			return null;
+		}
+
+		KBExp<?, ?> findApp(int hash, Object f, KBExp<?, ?>[] args) {
+			purge();
+			outer: for (Entry e = table[hash & (table.length - 1)]; e != null; e = e.next) {
+				if (e.hash != hash) {
+					continue;
+				}
+				KBExp<?, ?> x = e.get();
+				if (x == null || x.isVar) {
+					continue;
+				}
+				KBApp<?, ?> y = (KBApp<?, ?>) x;
+				if (f == null ? y.f != null : !f.equals(y.f)) {
+					continue;
+				}
+				if (y.args.length != args.length) {
+					continue;
+				}
+				for (int i = 0; i < args.length; i++) {
+					if (y.args[i] != args[i]) {
+						continue outer;
+					}
+				}
+				return x;
+			}
+			return null;
+		}
+
+		void put(int hash, KBExp<?, ?> x) {
+			if (size >= table.length) {
+				resize();
+			}
+			int i = hash & (table.length - 1);
+			table[i] = new Entry(x, hash, table[i], queue);
+			size++;
+		}
+
+		private void resize() {
+			Entry[] old = table;
+			table = new Entry[old.length * 2];
+			for (Entry e : old) {
+				while (e != null) {
+					Entry next = e.next;
+					int i = e.hash & (table.length - 1);
+					e.next = table[i];
+					table[i] = e;
+					e = next;
+				}
+			}
+		}
+
+		private void purge() {
+			Object r;
+			while ((r = queue.poll()) != null) {
+				Entry dead = (Entry) r;
+				int i = dead.hash & (table.length - 1);
+				Entry prev = null;
+				for (Entry e = table[i]; e != null; prev = e, e = e.next) {
+					if (e == dead) {
+						if (prev == null) {
+							table[i] = e.next;
+						} else {
+							prev.next = e.next;
+						}
+						size--;
+						break;
+					}
+				}
+			}
+		}
+	}
+
+}
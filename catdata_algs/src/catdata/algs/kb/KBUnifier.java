@@ -1,92 +1,240 @@
 package catdata.algs.kb;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
+import catdata.algs.Pair;
 import catdata.algs.kb.KBExp.KBApp;
+import catdata.algs.kb.KBExp.KBVar;
 
 /**
  * 
  * @author Ryan Wisnesky
  *
- * Naive implementation of first-order unification.
+ * First-order unification and matching.
  *
  * @param <C> type of constant/function symbols
  * @param <V> type of variables
  */
 public class KBUnifier<C, V> {
 
+	private static final ThreadLocal<Matcher> matchers = ThreadLocal.withInitial(Matcher::new);
+	//the subterms searched by occurs, emptied after each search
+	private static final ThreadLocal<Set<KBExp<?, ?>>> searched = ThreadLocal.withInitial(HashSet::new);
+
+	/**
+	 * @return the substitution that maps s to t, or null if t is not an instance of s.  The 
+	 * variables of t are treated as constants, so s and t may share variables.
+	 */
 	public static <C, V> Map<V, KBExp<C, V>> findSubst(KBExp<C, V> s, KBExp<C, V> t) {
-		// if (!Collections.disjoint(s.vars_fast(), t.vars_fast())) {
-		// throw new RuntimeException("not disjoint in findsubst");
-		// }
-		Map<V, KBExp<C, V>> m = unify0(s, t.freeze());
-		if (m == null) {
-			return null;
-		}
-		Map<V, KBExp<C, V>> ret = new HashMap<>();
-		for (V v : m.keySet()) {
-			ret.put(v, m.get(v).unfreeze());
-		}
+		Matcher m = matchers.get();
+		Map<V, KBExp<C, V>> ret = m.match(s, t) ? m.toMap() : null;
+		m.clear();
 		return ret;
 	}
 
-	public static <C, V> Map<V, KBExp<C, V>> unify0(KBExp<C, V> s, KBExp<C, V> t) {
-		if (s.isVar) {
-			V v = s.getVar().var;
-			if (!t.isVar && t.vars().contains(v)) {
-				return null; // occurs check failed
+	/**
+	 * One-way matching into a binding array that is reused between calls on the same thread.
+	 * Patterns have few variables, so bindings are found by a linear scan; variables are 
+	 * hash-consed, so they are compared by reference.
+	 */
+	private static final class Matcher {
+		private KBExp<?, ?>[] vars = new KBExp<?, ?>[16];
+		private KBExp<?, ?>[] vals = new KBExp<?, ?>[16];
+		private int n = 0;
+
+		private boolean match(KBExp<?, ?> s, KBExp<?, ?> t) {
+			if (s.isVar) {
+				for (int i = 0; i < n; i++) {
+					if (vars[i] == s) {
+						return vals[i] == t;
+					}
+				}
+				if (n == vars.length) {
+					vars = Arrays.copyOf(vars, 2 * n);
+					vals = Arrays.copyOf(vals, 2 * n);
+				}
+				vars[n] = s;
+				vals[n] = t;
+				n++;
+				return true;
+			}
+			if (t.isVar) {
+				return false;
+			}
+			KBApp<?, ?> s0 = s.getApp();
+			KBApp<?, ?> t0 = t.getApp();
+			if (s0 == t0 && s.vars().isEmpty()) {
+				return true;
+			}
+			if (!s0.f.equals(t0.f) || s0.args.length != t0.args.length) {
+				return false;
+			}
+			for (int i = 0; i < s0.args.length; i++) {
+				if (!match(s0.args[i], t0.args[i])) {
+					return false;
+				}
 			}
-			return singleton(v, t);
+			return true;
 		}
-		KBApp<C, V> s0 = (KBApp<C, V>) s;
-		if (t.isVar) {
-			V v = t.getVar().var;
-			if (s.vars().contains(v)) {
-				return null; // occurs check failed
+
+		@SuppressWarnings("unchecked")
+		private <C, V> Map<V, KBExp<C, V>> toMap() {
+			Map<V, KBExp<C, V>> ret = new HashMap<>(2 * n);
+			for (int i = 0; i < n; i++) {
+				ret.put(((KBVar<C, V>) vars[i]).var, (KBExp<C, V>) vals[i]);
 			}
-			return singleton(v, s);
+			return ret;
 		}
-		KBApp<C, V> t0 = t.getApp();
-		if (!s0.f.equals(t0.f)) {
-			return null;
+
+		//so the terms can be reclaimed
+		private void clear() {
+			Arrays.fill(vars, 0, n, null);
+			Arrays.fill(vals, 0, n, null);
+			n = 0;
 		}
-		if (s0.args.size() != t0.args.size()) {
+	}
+
+	/**
+	 * @return a most general unifier of s and t, which is idempotent, or null if there is none
+	 */
+	public static <C, V> Map<V, KBExp<C, V>> unify0(KBExp<C, V> s, KBExp<C, V> t) {
+		Map<V, KBExp<C, V>> bound = new HashMap<>();
+		if (!unify(s, t, bound)) {
 			return null;
 		}
 		Map<V, KBExp<C, V>> ret = new HashMap<>();
-		for (int i = 0; i < s0.args.size(); i++) {
-			Map<V, KBExp<C, V>> m = unify0(s0.args.get(i).subst(ret), t0.args.get(i).subst(ret));
-			if (m == null) {
-				return null;
-			}
-			ret = andThen(ret, m);
+		Map<KBExp<C, V>, KBExp<C, V>> cache = new HashMap<>();
+		for (V v : bound.keySet()) {
+			ret.put(v, resolve(bound.get(v), bound, cache));
 		}
-		// if (ret != null && !s.subst(ret).equals(t.subst(ret))) {
-		// throw new RuntimeException("trying to unify " + s + " and " + t +
-		// " yields " + ret + " but " + s.subst(ret) + " and " + t.subst(ret));
-		// }
 		return ret;
 	}
 
-	private static <C, V> Map<V, KBExp<C, V>> singleton(V v, KBExp<C, V> t) {
-		Map<V, KBExp<C, V>> ret = new HashMap<>();
-		ret.put(v, t);
-		return ret;
+	/**
+	 * Martelli-Montanari unification into a triangular substitution: each variable is bound at 
+	 * most once, to a term whose variables may be bound in turn, so nothing is substituted 
+	 * until the end.  Terms are hash-consed, so a pair of subterms is decomposed only once.
+	 */
+	private static <C, V> boolean unify(KBExp<C, V> s0, KBExp<C, V> t0, Map<V, KBExp<C, V>> bound) {
+		Deque<KBExp<C, V>> todo = new ArrayDeque<>();
+		Set<Pair<KBExp<C, V>, KBExp<C, V>>> done = null;
+		todo.push(t0);
+		todo.push(s0);
+		while (!todo.isEmpty()) {
+			KBExp<C, V> s = walk(todo.pop(), bound);
+			KBExp<C, V> t = walk(todo.pop(), bound);
+			if (s == t) {
+				continue;
+			}
+			if (s.isVar) {
+				V v = s.getVar().var;
+				if (occurs(v, t, bound)) {
+					return false;
+				}
+				bound.put(v, t);
+				continue;
+			}
+			if (t.isVar) {
+				V v = t.getVar().var;
+				if (occurs(v, s, bound)) {
+					return false;
+				}
+				bound.put(v, s);
+				continue;
+			}
+			KBApp<C, V> s1 = s.getApp();
+			KBApp<C, V> t1 = t.getApp();
+			if (!s1.f.equals(t1.f) || s1.args.length != t1.args.length) {
+				return false;
+			}
+			if (done == null) {
+				done = new HashSet<>();
+			}
+			if (!done.add(new Pair<>(s, t))) {
+				continue;
+			}
+			for (int i = s1.args.length - 1; i >= 0; i--) {
+				todo.push(t1.args[i]);
+				todo.push(s1.args[i]);
+			}
+		}
+		return true;
 	}
 
-	private static <C, V> Map<V, KBExp<C, V>> andThen(Map<V, KBExp<C, V>> s, Map<V, KBExp<C, V>> t) {
-		Map<V, KBExp<C, V>> ret = new HashMap<>();
+	private static <C, V> KBExp<C, V> walk(KBExp<C, V> e, Map<V, KBExp<C, V>> bound) {
+		while (e.isVar) {
+			KBExp<C, V> f = bound.get(e.getVar().var);
+			if (f == null) {
+				break;
+			}
+			e = f;
+		}
+		return e;
+	}
+
+	//the set of searched subterms is reused, so a binding allocates nothing; one that grew large
+	//is dropped rather than cleared, as clearing takes time in its capacity
+	private static <C, V> boolean occurs(V v, KBExp<C, V> e, Map<V, KBExp<C, V>> bound) {
+		Set<KBExp<?, ?>> visited = searched.get();
+		try {
+			return occurs(v, e, bound, visited);
+		} finally {
+			if (visited.size() > 64) {
+				searched.remove();
+			} else {
+				visited.clear();
+			}
+		}
+	}
 
-		for (V k : s.keySet()) {
-			ret.put(k, s.get(k).subst(t));
+	//ground subterms, and subterms already searched, are not searched again
+	private static <C, V> boolean occurs(V v, KBExp<C, V> e, Map<V, KBExp<C, V>> bound, Set<KBExp<?, ?>> visited) {
+		e = walk(e, bound);
+		if (e.isVar) {
+			return e.getVar().var.equals(v);
 		}
-		for (V k : t.keySet()) {
-			if (!s.containsKey(k)) {
-				ret.put(k, t.get(k));
+		if (e.vars().isEmpty()) {
+			return false;
+		}
+		if (!visited.add(e)) {
+			return false;
+		}
+		for (KBExp<C, V> arg : e.getApp().args) {
+			if (occurs(v, arg, bound, visited)) {
+				return true;
 			}
 		}
+		return false;
+	}
 
+	private static <C, V> KBExp<C, V> resolve(KBExp<C, V> e, Map<V, KBExp<C, V>> bound, Map<KBExp<C, V>, KBExp<C, V>> cache) {
+		e = walk(e, bound);
+		if (e.isVar || e.vars().isEmpty()) {
+			return e;
+		}
+		KBExp<C, V> ret = cache.get(e);
+		if (ret != null) {
+			return ret;
+		}
+		KBApp<C, V> a = e.getApp();
+		KBExp<C, V>[] args = null;
+		for (int i = 0; i < a.args.length; i++) {
+			KBExp<C, V> arg = resolve(a.args[i], bound, cache);
+			if (args == null && arg != a.args[i]) {
+				args = a.args.clone();
+			}
+			if (args != null) {
+				args[i] = arg;
+			}
+		}
+		ret = args == null ? e : KBExp.mkApp(a.f, args);
+		cache.put(e, ret);
 		return ret;
 	}
 
@@ -0,0 +1,177 @@
+package catdata.algs.kb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import catdata.algs.Pair;
+
+/**
+ *
+ * Aho-Corasick automaton over the left-hand sides of a set of string rewrite rules, for
+ * normalizing words in one left-to-right pass, as in KB_Thue.  Rules are tracked by identity,
+ * since KB_Thue reorients pairs in place.  Removing a rule only disables it; adding one marks
+ * the automaton for rebuilding, which happens at the next rewrite.  Not thread-safe.
+ *
+ * @param <X> the alphabet
+ */
+class KBWordAutomaton<X> {
+
+	private final Map<Pair<List<X>, List<X>>, Boolean> rules = new IdentityHashMap<>();
+	private boolean stale = true;
+	private long rewrites = 0;
+
+	//the trie, state 0 being the root
+	private final List<Map<X, Integer>> next = new ArrayList<>();
+	private final List<Integer> fail = new ArrayList<>();
+	//the rules whose left-hand side ends exactly at each state, or null
+	private final List<List<Pair<List<X>, List<X>>>> out = new ArrayList<>();
+	//the nearest state along the failure links at which some left-hand side ends, or -1
+	private final List<Integer> dict = new ArrayList<>();
+
+	/**
+	 * @param rules those whose sides differ in length are used, rewriting left to right
+	 */
+	KBWordAutomaton(Collection<Pair<List<X>, List<X>>> rules) {
+		for (Pair<List<X>, List<X>> r : rules) {
+			add(r);
+		}
+	}
+
+	void add(Pair<List<X>, List<X>> r) {
+		if (r.first.isEmpty() || r.first.size() == r.second.size()) {
+			return;
+		}
+		Boolean enabled = rules.put(r, true);
+		if (enabled == null) {
+			stale = true;
+		}
+	}
+
+	void remove(Pair<List<X>, List<X>> r) {
+		if (rules.containsKey(r)) {
+			rules.put(r, false);
+		}
+	}
+
+	/**
+	 * Rewrites the leftmost-ending redex until none is left.  The word is kept as a stack of
+	 * symbols, each with the state reached after it; a rewrite pops the redex and pushes its
+	 * replacement back onto the input, so matching resumes from the state just before it.
+	 *
+	 * @param except a rule not to use, or null
+	 * @return a normal form of w
+	 */
+	List<X> rewrite(List<X> w, Pair<List<X>, List<X>> except) {
+		if (stale) {
+			build();
+		}
+		Deque<X> input = new ArrayDeque<>(w);
+		List<X> word = new ArrayList<>(w.size());
+		List<Integer> states = new ArrayList<>(w.size() + 1);
+		states.add(0);
+		while (!input.isEmpty()) {
+			X x = input.pop();
+			int s = step(states.get(states.size() - 1), x);
+			word.add(x);
+			states.add(s);
+			Pair<List<X>, List<X>> r = redex(s, except);
+			if (r == null) {
+				continue;
+			}
+			rewrites++;
+			for (int i = 0; i < r.first.size(); i++) {
+				word.remove(word.size() - 1);
+				states.remove(states.size() - 1);
+			}
+			for (int i = r.second.size() - 1; i >= 0; i--) {
+				input.push(r.second.get(i));
+			}
+		}
+		return word;
+	}
+
+	/**
+	 * @return the number of rewrite steps taken so far
+	 */
+	long rewrites() {
+		return rewrites;
+	}
+
+	private int step(int s, X x) {
+		for (;;) {
+			Integer t = next.get(s).get(x);
+			if (t != null) {
+				return t;
+			}
+			if (s == 0) {
+				return 0;
+			}
+			s = fail.get(s);
+		}
+	}
+
+	//the enabled rule whose left-hand side is the longest suffix ending at s, or null
+	private Pair<List<X>, List<X>> redex(int s, Pair<List<X>, List<X>> except) {
+		for (int u = out.get(s) != null ? s : dict.get(s); u != -1; u = dict.get(u)) {
+			for (Pair<List<X>, List<X>> r : out.get(u)) {
+				if (r != except && rules.get(r)) {
+					return r;
+				}
+			}
+		}
+		return null;
+	}
+
+	private void build() {
+		rules.values().removeIf(enabled -> !enabled);
+		next.clear();
+		fail.clear();
+		out.clear();
+		dict.clear();
+		state();
+		for (Pair<List<X>, List<X>> r : rules.keySet()) {
+			int s = 0;
+			for (X x : r.first) {
+				Integer t = next.get(s).get(x);
+				if (t == null) {
+					t = state();
+					next.get(s).put(x, t);
+				}
+				s = t;
+			}
+			if (out.get(s) == null) {
+				out.set(s, new ArrayList<>());
+			}
+			out.get(s).add(r);
+		}
+		//breadth first, so the failure link of each state is done before its children's
+		Deque<Integer> queue = new ArrayDeque<>();
+		queue.add(0);
+		while (!queue.isEmpty()) {
+			int s = queue.poll();
+			for (Map.Entry<X, Integer> e : next.get(s).entrySet()) {
+				int t = e.getValue();
+				int f = s == 0 ? 0 : step(fail.get(s), e.getKey());
+				fail.set(t, f);
+				dict.set(t, out.get(f) != null ? f : dict.get(f));
+				queue.add(t);
+			}
+		}
+		stale = false;
+	}
+
+	private int state() {
+		next.add(new HashMap<>());
+		fail.add(0);
+		out.add(null);
+		dict.add(-1);
+		return next.size() - 1;
+	}
+
+}
@@ -12,6 +12,7 @@ import java.util.stream.Collectors;
 
 import catdata.algs.Pair;
 import catdata.algs.Quad;
+import catdata.algs.kb.KBStats.Counter;
 
 /**
  * @author Ryan Wisnesky
@@ -35,6 +36,12 @@ public class KB_Thue<Y> {
 	private Map<Pair<List<Y>, List<Y>>, Boolean> equivs = new HashMap<>();
 	private int max_iterations;
 	private int iteration = 0;
+	private int steps = 0;
+	private KBListener listener = null;
+	private KBStats stats = null; //metrics of the step in progress, if measured
+	//over the length-reducing rules of automatonOf, kept in step with it by added and removed
+	private KBWordAutomaton<?> automaton = null;
+	private Set<?> automatonOf = null;
 	
 	/**
 	 * @param rules to be completed. DOE NOTE copy, and MUTATES IN PLACE the pairs inside of rules 
@@ -46,6 +53,35 @@ public class KB_Thue<Y> {
 		orient(this.rules);
 	}
 
+	/**
+	 * @param rules already completed, as read back by KBImage.thue
+	 */
+	KB_Thue(Set<Pair<List<Y>, List<Y>>> rules) {
+		this(rules, 0);
+		finished = true;
+	}
+
+	boolean isFinished() {
+		return finished;
+	}
+
+	Set<Pair<List<Y>, List<Y>>> getRules() {
+		return rules;
+	}
+
+	/**
+	 * Reports the metrics of each step to listener, or stops reporting if null.
+	 */
+	public void setListener(KBListener listener) {
+		this.listener = listener;
+	}
+
+	private void count(Counter c, long n) {
+		if (stats != null) {
+			stats.add(c, n);
+		}
+	}
+
 	public void complete() {
 		go(rules, iteration, max_iterations);
 		finished = true;
@@ -99,10 +135,37 @@ public class KB_Thue<Y> {
 		}
 	}
 
-	private static <X> void orient(Set<Pair<List<X>, List<X>>> t) {
+	//returns true if any rule was reversed
+	private static <X> boolean orient(Set<Pair<List<X>, List<X>>> t) {
+		boolean ret = false;
 		for (Pair<List<X>, List<X>> rule : t) {
+			ret |= rule.second.size() > rule.first.size();
 			orient(rule);
 		}
+		return ret;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <X> KBWordAutomaton<X> automaton(Set<Pair<List<X>, List<X>>> t) {
+		if (automatonOf != t) {
+			automaton = new KBWordAutomaton<>(t);
+			automatonOf = t;
+		}
+		return (KBWordAutomaton<X>) automaton;
+	}
+
+	//to be called after adding rule to t
+	private <X> void added(Set<Pair<List<X>, List<X>>> t, Pair<List<X>, List<X>> rule) {
+		if (automatonOf == t) {
+			automaton(t).add(rule);
+		}
+	}
+
+	//to be called after removing rule from t
+	private <X> void removed(Set<Pair<List<X>, List<X>>> t, Pair<List<X>, List<X>> rule) {
+		if (automatonOf == t) {
+			automaton(t).remove(rule);
+		}
 	}
 
 	private <X> void go(Set<Pair<List<X>, List<X>>> t, int iteration, int max_iterations) {
@@ -114,16 +177,54 @@ public class KB_Thue<Y> {
 	}
 
 	private <X> boolean step(Set<Pair<List<X>, List<X>>> t) {
-		orient(t);
+		steps++;
+		KBListener l = listener;
+		if (l == null || !l.isEnabled()) {
+			return step0(t);
+		}
+		KBStats s = new KBStats(steps);
+		stats = s;
+		l.started(steps);
+		long start = System.nanoTime();
+		try {
+			boolean ret = step0(t);
+			s.add(Counter.STEP_NANOS, System.nanoTime() - start);
+			for (Pair<List<X>, List<X>> rule : t) {
+				s.inc(rule.first.size() == rule.second.size() ? Counter.SIZE_E : Counter.SIZE_R);
+			}
+			s.add(Counter.HEAP_BYTES, KBStats.heap());
+			stats = null;
+			l.finished(s);
+			return ret;
+		} finally {
+			stats = null;
+		}
+	}
+
+	private <X> boolean step0(Set<Pair<List<X>, List<X>>> t) {
+		if (orient(t)) {
+			automatonOf = null;
+		}
+		long t0 = stats == null ? 0 : System.nanoTime();
 		normalize(t);
+		long t1 = stats == null ? 0 : System.nanoTime();
 		Set<Pair<List<X>, List<X>>> ce = cp(t);
+		long t2 = stats == null ? 0 : System.nanoTime();
+		count(Counter.INTERREDUCE_NANOS, t1 - t0);
+		count(Counter.CP_NANOS, t2 - t1);
 		if (!ce.isEmpty()) {
-			t.addAll(ce);
+			for (Pair<List<X>, List<X>> rule : ce) {
+				if (t.add(rule)) {
+					added(t, rule);
+				}
+			}
 			normalize(t);
 			ce = cp(t);
+			count(Counter.INTERREDUCE_NANOS, (stats == null ? 0 : System.nanoTime()) - t2);
 			return false;
 		} else {
 			simplify(t);
+			count(Counter.INTERREDUCE_NANOS, (stats == null ? 0 : System.nanoTime()) - t2);
 			return true;
 		}
 	}
@@ -142,13 +243,13 @@ public class KB_Thue<Y> {
 		Iterator<Pair<List<X>, List<X>>> it = t.iterator();
 		while (it.hasNext()) {
 			Pair<List<X>, List<X>> rule = it.next();
-			Set<Pair<List<X>, List<X>>> t0 = new HashSet<>(t);
-			t0.remove(rule);
-			if (!normal_form(rule.first, t0).equals(rule.first)) {
+			if (!normal_form(rule.first, t, rule).equals(rule.first)) {
 				it.remove();
+				removed(t, rule);
+				count(Counter.RULES_COLLAPSED, 1);
 				continue;
 			}
-			// if (!normal_form(rule.second, t0).equals(rule.second)) {
+			// if (!normal_form(rule.second, t, rule).equals(rule.second)) {
 			// throw new RuntimeException();
 			// }
 		}
@@ -159,13 +260,17 @@ public class KB_Thue<Y> {
 		Pair<List<X>, List<X>> lr = null;
 		while ((lr = getUnmarked(marked, t)) != null) {
 			t.remove(lr);
+			removed(t, lr);
 			List<X> l0 = normal_form(lr.first, t);
 			List<X> r0 = normal_form(lr.second, t);
 			if (!almost_joinable(l0, r0, t)) {
 				Pair<List<X>, List<X>> l0r0 = new Pair<>(l0, r0);
 				orient(l0r0);
-				t.add(l0r0);
+				if (t.add(l0r0)) {
+					added(t, l0r0);
+				}
 				marked.add(l0r0);
+				count(Counter.RULES_ADDED, 1);
 			}
 			marked.add(lr); // TODO added, only in paper in some examples
 		}
@@ -181,22 +286,16 @@ public class KB_Thue<Y> {
 	} */
 
 	private <X> List<X> normal_form(List<X> e, Set<Pair<List<X>, List<X>>> t) {
-		List<X> ret = new LinkedList<>(e);
-		for (Pair<List<X>, List<X>> rule : t) {
-			if (rule.first.size() == rule.second.size()) {
-				continue;
-			}
-			int i = occurs(ret, rule.first);
-			if (i == -1) {
-				continue;
-			}
-			delete(ret, i, rule.first.size());
-			add(ret, i, rule.second);
-			if (!e.equals(ret)) {
-				return normal_form(ret, t);
-			}
-		}
+		return normal_form(e, t, null);
+	}
 
+	// normal form under the length-reducing rules of t other than except, in one pass of the
+	// automaton over their left-hand sides
+	private <X> List<X> normal_form(List<X> e, Set<Pair<List<X>, List<X>>> t, Pair<List<X>, List<X>> except) {
+		KBWordAutomaton<X> a = automaton(t);
+		long n = a.rewrites();
+		List<X> ret = a.rewrite(e, except);
+		count(Counter.REWRITES, a.rewrites() - n);
 		return ret;
 	}
 
@@ -335,8 +434,11 @@ public class KB_Thue<Y> {
 				urj.addAll(rj);
 				List<X> riw = new LinkedList<>(ri);
 				riw.addAll(vw.second);
+				count(Counter.CPS, 1);
 				if (!almost_joinable(urj, riw, t)) {
 					ret.add(new Pair<>(urj, riw));
+				} else {
+					count(Counter.CPS_JOINED, 1);
 				}
 			}
 		}
@@ -359,8 +461,11 @@ public class KB_Thue<Y> {
 			List<X> urjw = new LinkedList<>(u);
 			urjw.addAll(rj);
 			urjw.addAll(w);
+			count(Counter.CPS, 1);
 			if (!almost_joinable(ri, urjw, t)) {
 				ret.add(new Pair<>(ri, urjw));
+			} else {
+				count(Counter.CPS_JOINED, 1);
 			}
 		}
 	}
@@ -0,0 +1,98 @@
+package catdata.algs.kb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class KBAutomatonTest {
+
+	//the subject is unrelated, an instance of a pattern, or a subterm of one
+	private static KBExp<String, String> subject(Random rnd, List<KBExp<String, String>> patterns) {
+		KBExp<String, String> p = patterns.get(rnd.nextInt(patterns.size()));
+		Map<String, KBExp<String, String>> sigma = new HashMap<>();
+		for (String v : p.vars()) {
+			sigma.put(v, KBTestTerms.random(rnd, 2));
+		}
+		switch (rnd.nextInt(3)) {
+		case 0:
+			return KBTestTerms.random(rnd, 5);
+		case 1:
+			return p.subst(sigma);
+		default:
+			KBExp<String, String> e = p.subst(sigma);
+			return e.at(rnd.nextInt(e.size));
+		}
+	}
+
+	@Test
+	public void candidatesIncludeIndexAndMatches() {
+		Random rnd = new Random(2);
+		List<KBExp<String, String>> patterns = new ArrayList<>();
+		List<Integer> vals = new ArrayList<>();
+		KBIndex<String, String, Integer> idx = new KBIndex<>();
+		for (int r = 0; r < 60; r++) {
+			KBExp<String, String> p = KBTestTerms.random(rnd, 3);
+			patterns.add(p);
+			vals.add(r);
+			idx.put(p, r);
+		}
+		KBAutomaton<String, String, Integer> auto = new KBAutomaton<>(vals, patterns::get);
+		int matched = 0;
+		for (int n = 0; n < 5000; n++) {
+			KBExp<String, String> e = subject(rnd, patterns);
+			List<Integer> got = auto.match(e);
+			Set<Integer> cands = new HashSet<>(got);
+			assertEquals(e.toString(), cands.size(), got.size());
+			assertTrue(e + ": " + got + " misses some of " + idx.generalizations(e), cands.containsAll(idx.generalizations(e)));
+			for (int r = 0; r < patterns.size(); r++) {
+				if (KBUnifier.findSubst(patterns.get(r), e) != null) {
+					assertTrue(e + ": " + got + " misses " + patterns.get(r), cands.contains(r));
+					matched++;
+				}
+			}
+			for (int i = 1; i < got.size(); i++) {
+				assertTrue(e + ": " + got + " out of order", got.get(i - 1) < got.get(i));
+			}
+		}
+		assertTrue(String.valueOf(matched), matched > 1000);
+	}
+
+	private static void checkCompiled(KBSystem<String, String> sys, List<KBExp<String, String>> terms) {
+		KBSystem<String, String> compiled = sys.compile();
+		for (KBExp<String, String> e : terms) {
+			assertEquals(e.toString(), sys.nf(e), compiled.nf(e));
+		}
+	}
+
+	@Test
+	public void compiledNormalFormsAgree() {
+		KBSystem<String, String> groups = KBTestTerms.groupsKbo().snapshot();
+		KBSystem<String, String> monoids = KBTestTerms.commutativeMonoidsLpo().snapshot();
+		assertTrue(monoids.getEquations().size() > 0);
+
+		Random rnd = new Random(3);
+		List<KBExp<String, String>> terms = new ArrayList<>();
+		for (int n = 0; n < 2000; n++) {
+			terms.add(KBTestTerms.group(rnd, 6, false));
+		}
+		checkCompiled(groups, terms);
+		checkCompiled(monoids, terms);
+
+		//a complete system normalizes terms with variables too
+		terms.clear();
+		for (int n = 0; n < 2000; n++) {
+			terms.add(KBTestTerms.group(rnd, 6, true));
+		}
+		checkCompiled(groups, terms);
+	}
+
+}
@@ -0,0 +1,79 @@
+package catdata.algs.kb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import catdata.algs.Pair;
+
+public class KBImageTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private void checkRoundTrip(KBSystem<String, String> sys, Function<Pair<String, String>, Boolean> prec,
+			Function<String, Integer> weight, boolean vars) throws IOException {
+		Path path = tmp.newFile().toPath();
+		KBImage.write(sys, path, c -> c, prec, weight, 1);
+		KBMapped<String, String> mapped = KBImage.map(path, c -> c);
+		assertEquals(sys.isComplete(), mapped.isComplete());
+		Random rnd = new Random(4);
+		for (int n = 0; n < 2000; n++) {
+			KBExp<String, String> e = KBTestTerms.group(rnd, 6, vars);
+			assertEquals(e.toString(), sys.nf(e), mapped.nf(e));
+		}
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		checkRoundTrip(KBTestTerms.groupsKbo().snapshot(), KBTestTerms.groupPrec(), KBTestTerms.groupWeight(), true);
+
+		//ordered rewriting with the commutativity of *, by the ordering read back from the image
+		KBSystem<String, String> monoids = KBTestTerms.commutativeMonoidsLpo().snapshot();
+		assertTrue(monoids.getEquations().size() > 0);
+		checkRoundTrip(monoids, KBTestTerms.groupPrec(), null, false);
+	}
+
+	@Test
+	public void orderingMustBeTheSystems() throws IOException {
+		KBSystem<String, String> monoids = KBTestTerms.commutativeMonoidsLpo().snapshot();
+		KBSystem<String, String> groups = KBTestTerms.groupsKbo().snapshot();
+		List<String> reversed = Arrays.asList("i", "*", "e");
+		Function<Pair<String, String>, Boolean> wrong = p -> reversed.indexOf(p.first) > reversed.indexOf(p.second);
+		//only orderings that differ on the rules or equations are caught: not groups under LPO,
+		//which orients all ten rules as KBO does, nor these monoids under KBO
+		List<Runnable> writes = Arrays.asList(
+				() -> write(monoids, wrong, null),
+				() -> write(groups, wrong, KBTestTerms.groupWeight()),
+				() -> write(groups, KBTestTerms.groupPrec(), c -> 1));
+		for (int k = 0; k < writes.size(); k++) {
+			try {
+				writes.get(k).run();
+				fail("wrote image " + k + " under the wrong ordering");
+			} catch (RuntimeException ex) {
+				assertTrue(ex.getMessage(), ex.getMessage().contains("as the system does"));
+			}
+		}
+	}
+
+	private void write(KBSystem<String, String> sys, Function<Pair<String, String>, Boolean> prec,
+			Function<String, Integer> weight) {
+		try {
+			KBImage.write(sys, tmp.newFile().toPath(), c -> c, prec, weight, 1);
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+}
@@ -0,0 +1,228 @@
+package catdata.algs.kb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import catdata.algs.Pair;
+import catdata.algs.kb.KBExp.KBApp;
+import catdata.algs.kb.KBOrders.Comparison;
+
+public class KBOrdersTest {
+
+	private static Function<Pair<String, String>, Boolean> prec(String... order) {
+		List<String> p = Arrays.asList(order);
+		return x -> p.indexOf(x.first) > p.indexOf(x.second);
+	}
+
+	//s > t by the textbook definition of LPO
+	private static boolean lpo(Function<Pair<String, String>, Boolean> gt, KBExp<String, String> s, KBExp<String, String> t) {
+		if (s.isVar) {
+			return false;
+		}
+		if (t.isVar) {
+			return s.vars().contains(t.getVar().var);
+		}
+		KBApp<String, String> s0 = s.getApp(), t0 = t.getApp();
+		for (KBExp<String, String> si : s0.args) {
+			if (si.equals(t) || lpo(gt, si, t)) {
+				return true;
+			}
+		}
+		for (KBExp<String, String> tj : t0.args) {
+			if (!lpo(gt, s, tj)) {
+				return false;
+			}
+		}
+		if (gt.apply(new Pair<>(s0.f, t0.f))) {
+			return true;
+		}
+		if (!s0.f.equals(t0.f) || s0.args.length != t0.args.length) {
+			return false;
+		}
+		for (int i = 0; i < s0.args.length; i++) {
+			if (!s0.args[i].equals(t0.args[i])) {
+				return lpo(gt, s0.args[i], t0.args[i]);
+			}
+		}
+		return false;
+	}
+
+	//s > t by the textbook definition of KBO
+	private static boolean kbo(Function<String, Integer> weight, int varWeight, Function<Pair<String, String>, Boolean> gt,
+			KBExp<String, String> s, KBExp<String, String> t) {
+		Map<String, Integer> sv = new HashMap<>(), tv = new HashMap<>();
+		long ws = weigh(weight, varWeight, s, sv), wt = weigh(weight, varWeight, t, tv);
+		for (Map.Entry<String, Integer> x : tv.entrySet()) {
+			if (sv.getOrDefault(x.getKey(), 0) < x.getValue()) {
+				return false;
+			}
+		}
+		if (ws != wt) {
+			return ws > wt;
+		}
+		if (s.isVar) {
+			return false;
+		}
+		if (t.isVar) {
+			//s = f(...f(t)), f unary
+			KBExp<String, String> u = s;
+			String f = s.getApp().f;
+			while (!u.isVar && u.getApp().f.equals(f) && u.getApp().args.length == 1) {
+				u = u.getApp().args[0];
+			}
+			return u.equals(t);
+		}
+		KBApp<String, String> s0 = s.getApp(), t0 = t.getApp();
+		if (gt.apply(new Pair<>(s0.f, t0.f))) {
+			return true;
+		}
+		if (!s0.f.equals(t0.f) || s0.args.length != t0.args.length) {
+			return false;
+		}
+		for (int i = 0; i < s0.args.length; i++) {
+			if (!s0.args[i].equals(t0.args[i])) {
+				return kbo(weight, varWeight, gt, s0.args[i], t0.args[i]);
+			}
+		}
+		return false;
+	}
+
+	private static long weigh(Function<String, Integer> weight, int varWeight, KBExp<String, String> e, Map<String, Integer> vars) {
+		if (e.isVar) {
+			vars.merge(e.getVar().var, 1, Integer::sum);
+			return varWeight;
+		}
+		long ret = weight.apply(e.getApp().f);
+		for (KBExp<String, String> arg : e.getApp().args) {
+			ret += weigh(weight, varWeight, arg, vars);
+		}
+		return ret;
+	}
+
+	private static Comparison compare(BiFunction<KBExp<String, String>, KBExp<String, String>, Boolean> gt,
+			KBExp<String, String> s, KBExp<String, String> t) {
+		if (s.equals(t)) {
+			return Comparison.EQUAL;
+		}
+		boolean st = gt.apply(s, t), ts = gt.apply(t, s);
+		assertTrue(s + " and " + t + " are each greater than the other", !st || !ts);
+		return st ? Comparison.GREATER : ts ? Comparison.LESS : Comparison.INCOMPARABLE;
+	}
+
+	//the comparisons, checking that there are enough of each to mean something
+	private static void checkCounts(Map<Comparison, Integer> counts) {
+		for (Comparison c : Arrays.asList(Comparison.GREATER, Comparison.LESS, Comparison.INCOMPARABLE)) {
+			assertTrue(counts.toString(), counts.getOrDefault(c, 0) > 100);
+		}
+	}
+
+	//the same pairs under two precedences, asked in turn, so that each comparison memoized
+	//under one precedence would be returned under the other if the memo were shared
+	@Test
+	public void lpoAgreesWithDefinition() {
+		List<Function<Pair<String, String>, Boolean>> precs = Arrays.asList(prec("a", "b", "f", "g", "h", "i"),
+				prec("i", "h", "g", "f", "b", "a"));
+		List<BiFunction<KBExp<String, String>, KBExp<String, String>, Comparison>> lpos = Arrays.asList(
+				KBOrders.lpo(precs.get(0)), KBOrders.lpo(precs.get(1)));
+		List<Function<Pair<KBExp<String, String>, KBExp<String, String>>, Boolean>> lpogts = Arrays.asList(
+				KBOrders.lpogt(precs.get(0)), KBOrders.lpogt(precs.get(1)));
+		Map<Comparison, Integer> counts = new HashMap<>();
+		Random rnd = new Random(1);
+		for (int n = 0; n < 5000; n++) {
+			Pair<KBExp<String, String>, KBExp<String, String>> p = KBTestTerms.randomPair(rnd, 4);
+			for (int k = 0; k < 2; k++) {
+				Function<Pair<String, String>, Boolean> gt = precs.get(k);
+				Comparison expected = compare((s, t) -> lpo(gt, s, t), p.first, p.second);
+				String msg = "precedence " + k + ": " + p.first + " vs " + p.second;
+				assertEquals(msg, expected, lpos.get(k).apply(p.first, p.second));
+				assertEquals(msg, expected.reverse(), lpos.get(k).apply(p.second, p.first));
+				assertEquals(msg, expected == Comparison.GREATER, lpogts.get(k).apply(p));
+				counts.merge(expected, 1, Integer::sum);
+			}
+		}
+		checkCounts(counts);
+	}
+
+	//i is unary of weight 0 and greatest, as admissibility requires of such a symbol
+	@Test
+	public void kboAgreesWithDefinition() {
+		Map<String, Integer> weights = new HashMap<>();
+		weights.put("a", 1);
+		weights.put("b", 3);
+		weights.put("f", 2);
+		weights.put("g", 0);
+		weights.put("h", 1);
+		weights.put("i", 0);
+		for (int varWeight : new int[] { 1, 2 }) {
+			Function<String, Integer> weight = f -> f.equals("a") || f.equals("b") ? Math.max(weights.get(f), varWeight) : weights.get(f);
+			Function<Pair<String, String>, Boolean> gt = prec("a", "g", "b", "f", "h", "i");
+			BiFunction<KBExp<String, String>, KBExp<String, String>, Comparison> kbo = KBOrders.kbo(weight, varWeight, gt);
+			Function<Pair<KBExp<String, String>, KBExp<String, String>>, Boolean> kbogt = KBOrders.kbogt(weight, varWeight, gt);
+			Map<Comparison, Integer> counts = new HashMap<>();
+			Random rnd = new Random(varWeight);
+			for (int n = 0; n < 5000; n++) {
+				Pair<KBExp<String, String>, KBExp<String, String>> p = KBTestTerms.randomPair(rnd, 4);
+				if (n % 10 == 0) {
+					//reach the case of a variable under a tower of i
+					p = new Pair<>(KBTestTerms.app("i", KBTestTerms.app("i", p.second)), p.second);
+				}
+				Comparison expected = compare((s, t) -> kbo(weight, varWeight, gt, s, t), p.first, p.second);
+				String msg = "variable weight " + varWeight + ": " + p.first + " vs " + p.second;
+				assertEquals(msg, expected, kbo.apply(p.first, p.second));
+				assertEquals(msg, expected.reverse(), kbo.apply(p.second, p.first));
+				assertEquals(msg, expected == Comparison.GREATER, kbogt.apply(p));
+				counts.merge(expected, 1, Integer::sum);
+			}
+			checkCounts(counts);
+		}
+	}
+
+	//groups-kbo of KBCorpus, which completes to the ten rules of the free group
+	@Test
+	public void kboCompletesGroups() {
+		KB<String, String> kb = KBTestTerms.groupsKbo();
+
+		KBExp<String, String> x = KBTestTerms.var("x"), y = KBTestTerms.var("y"), e = KBTestTerms.app("e");
+		List<Pair<KBExp<String, String>, KBExp<String, String>>> expected = Arrays.asList(
+				new Pair<>(mult(e, x), x),
+				new Pair<>(mult(x, e), x),
+				new Pair<>(mult(inv(x), x), e),
+				new Pair<>(mult(x, inv(x)), e),
+				new Pair<>(mult(mult(x, y), KBTestTerms.var("z")), mult(x, mult(y, KBTestTerms.var("z")))),
+				new Pair<>(inv(e), e),
+				new Pair<>(inv(inv(x)), x),
+				new Pair<>(mult(inv(x), mult(x, y)), y),
+				new Pair<>(mult(x, mult(inv(x), y)), y),
+				new Pair<>(inv(mult(x, y)), mult(inv(y), inv(x))));
+		Set<String> want = new TreeSet<>(), got = new TreeSet<>();
+		for (Pair<KBExp<String, String>, KBExp<String, String>> r : expected) {
+			want.add(KBTestTerms.canonical(r));
+		}
+		for (Pair<KBExp<String, String>, KBExp<String, String>> r : kb.R) {
+			got.add(KBTestTerms.canonical(r));
+		}
+		assertEquals(want, got);
+		assertTrue(kb.E.isEmpty());
+	}
+
+	private static KBExp<String, String> mult(KBExp<String, String> l, KBExp<String, String> r) {
+		return KBTestTerms.app("*", l, r);
+	}
+
+	private static KBExp<String, String> inv(KBExp<String, String> l) {
+		return KBTestTerms.app("i", l);
+	}
+
+}
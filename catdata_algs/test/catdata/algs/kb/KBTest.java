@@ -0,0 +1,176 @@
+package catdata.algs.kb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import catdata.algs.Pair;
+
+public class KBTest {
+
+	private static KBExp<String, String> app(String f, List<KBExp<String, String>> args) {
+		return KBExp.mkApp(f, args);
+	}
+
+	private static KBExp<String, String> mult(KBExp<String, String> l, KBExp<String, String> r) {
+		return app("*", Arrays.asList(l, r));
+	}
+
+	private static Set<Pair<KBExp<String, String>, KBExp<String, String>>> abelianGroups() {
+		KBExp<String, String> x = KBExp.mkVar("x"), y = KBExp.mkVar("y"), z = KBExp.mkVar("z");
+		KBExp<String, String> e = app("e", new ArrayList<>());
+		Set<Pair<KBExp<String, String>, KBExp<String, String>>> ret = new LinkedHashSet<>();
+		ret.add(new Pair<>(mult(mult(x, y), z), mult(x, mult(y, z))));
+		ret.add(new Pair<>(mult(e, x), x));
+		ret.add(new Pair<>(mult(app("i", Arrays.asList(x)), x), e));
+		ret.add(new Pair<>(mult(x, y), mult(y, x)));
+		return ret;
+	}
+
+	private static Function<Pair<KBExp<String, String>, KBExp<String, String>>, Boolean> lpo(String... prec) {
+		List<String> p = Arrays.asList(prec);
+		return KBOrders.lpogt(x -> p.indexOf(x.first) > p.indexOf(x.second));
+	}
+
+	private static KB<String, String> kb(Set<Pair<KBExp<String, String>, KBExp<String, String>>> eqs, String... prec) {
+		return new KB<>(eqs, lpo(prec), KBTestTerms.fresh(), true, true, 0, 200);
+	}
+
+	//x0 = f(x1, x1), ..., x(n-1) = f(xn, xn) against xn = a shares subterms exponentially, and
+	//a cycle closed at the end must still be found
+	@Test
+	public void unifyOccursCheck() {
+		int n = 24;
+		KBExp<String, String> a = app("a", new ArrayList<>());
+		List<KBExp<String, String>> l = new ArrayList<>(), r = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			KBExp<String, String> x = KBExp.mkVar("x" + (i + 1));
+			l.add(KBExp.mkVar("x" + i));
+			r.add(app("f", Arrays.asList(x, x)));
+		}
+		Map<String, KBExp<String, String>> s = KBUnifier.unify0(app("g", l), app("g", r));
+		assertNotNull(s);
+		assertEquals(n, s.size());
+
+		l.add(KBExp.mkVar("x" + n));
+		r.add(a);
+		s = KBUnifier.unify0(app("g", l), app("g", r));
+		assertNotNull(s);
+		assertTrue(s.get("x0").vars().isEmpty());
+
+		l.set(n, KBExp.mkVar("x" + n));
+		r.set(n, app("f", Arrays.asList(a, KBExp.mkVar("x0"))));
+		assertNull(KBUnifier.unify0(app("g", l), app("g", r)));
+	}
+
+	//fails step failAt after most of its work is done
+	private static class Failing extends KB<String, String> {
+		private int failAt;
+
+		private Failing(Set<Pair<KBExp<String, String>, KBExp<String, String>>> eqs, int failAt, String... prec) {
+			super(eqs, lpo(prec), KBTestTerms.fresh(), true, true, 0, 200);
+			this.failAt = failAt;
+		}
+
+		@Override
+		protected void simplify() {
+			super.simplify();
+			if (count == failAt) {
+				failAt = -1;
+				throw new RuntimeException("injected");
+			}
+		}
+	}
+
+	//a step rolled back and taken again leaves the same state as taking it once, picks included
+	@Test
+	public void rollbackIsInvisible() {
+		for (int failAt = 1; failAt <= 12; failAt++) {
+			KB<String, String> clean = kb(abelianGroups(), "e", "*", "i");
+			clean.setSelection(KBPassive.symbolCount(), 3, true);
+			KBCompletion<String, String> c = clean.complete(0, 16, 0);
+
+			KB<String, String> kb = new Failing(abelianGroups(), failAt, "e", "*", "i");
+			kb.setSelection(KBPassive.symbolCount(), 3, true);
+			try {
+				kb.complete(0, 16, 0);
+				fail("step " + failAt + " did not fail");
+			} catch (RuntimeException ex) {
+				assertEquals("injected", ex.getMessage());
+			}
+			assertEquals(failAt - 1, kb.count);
+			KBCompletion<String, String> d = kb.complete(0, 16 - (failAt - 1), 0);
+			assertEquals(c.status, d.status);
+			assertEquals(clean.count, kb.count);
+			assertEquals(clean.toString(), kb.toString());
+		}
+	}
+
+	//each step taken on a pool leaves the same E and R as taken sequentially, in the same order;
+	//returns whether completion ended within steps
+	private static boolean checkParallel(KB<String, String> seq, KB<String, String> par, int steps) {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			par.setParallel(pool);
+			for (int n = 0; n < steps; n++) {
+				KBCompletion<String, String> c = seq.complete(0, 1, 0), d = par.complete(0, 1, 0);
+				assertEquals(c.status, d.status);
+				assertEquals(seq.count, par.count);
+				assertEquals("step " + n, seq.toString(), par.toString());
+				if (c.isDone()) {
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void parallelIsDeterministic() {
+		Function<Pair<String, String>, Boolean> prec = KBTestTerms.groupPrec();
+		assertTrue(checkParallel(new KB<>(new HashSet<>(KBTestTerms.groups()), KBOrders.kbogt(KBTestTerms.groupWeight(), 1, prec),
+				KBTestTerms.fresh(), false, true, 0, 100),
+				new KB<>(new HashSet<>(KBTestTerms.groups()), KBOrders.kbogt(KBTestTerms.groupWeight(), 1, prec),
+						KBTestTerms.fresh(), false, true, 0, 100), 200));
+		checkParallel(kb(abelianGroups(), "e", "*", "i"), kb(abelianGroups(), "e", "*", "i"), 40);
+	}
+
+	//E comes to hold both orientations of some ground equations, and removing one of them must
+	//leave the other usable for ordered rewriting
+	@Test
+	public void unfailingAbelianGroups() {
+		for (String[] prec : Arrays.asList(new String[] { "e", "*", "i" }, new String[] { "i", "*", "e" })) {
+			KB<String, String> kb = kb(abelianGroups(), prec);
+			KBCompletion<String, String> c = kb.complete(0, 40, 0);
+			assertTrue(c.toString(), c.isDone() || c.status == KBCompletion.Status.STEP_LIMIT);
+
+			Set<Pair<KBExp<String, String>, KBExp<String, String>>> orientations = new HashSet<>();
+			for (Pair<KBExp<String, String>, KBExp<String, String>> e : kb.E) {
+				for (Pair<KBExp<String, String>, KBExp<String, String>> x : Arrays.asList(e, e.reverse())) {
+					assertNotNull(x.toString(), kb.Eorient.get(x));
+					assertNotNull(x.toString(), kb.bornE.get(x));
+					orientations.add(x);
+				}
+			}
+			assertEquals(orientations, kb.Eorient.keySet());
+			assertEquals(orientations.size(), kb.Eidx.size());
+		}
+	}
+
+}
@@ -0,0 +1,205 @@
+package catdata.algs.kb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+import catdata.algs.Pair;
+
+/**
+ *
+ * Terms for the tests: random terms over a small signature, and the groups and commutative
+ * monoids of KBCorpus.
+ *
+ */
+final class KBTestTerms {
+
+	//symbol to arity; i is the unary symbol that may weigh 0 under KBO
+	static final Map<String, Integer> SIGNATURE = new LinkedHashMap<>();
+	static {
+		SIGNATURE.put("a", 0);
+		SIGNATURE.put("b", 0);
+		SIGNATURE.put("f", 1);
+		SIGNATURE.put("g", 2);
+		SIGNATURE.put("h", 3);
+		SIGNATURE.put("i", 1);
+	}
+
+	private static final List<String> VARS = Arrays.asList("x", "y", "z");
+
+	private KBTestTerms() {
+	}
+
+	static KBExp<String, String> app(String f, List<KBExp<String, String>> args) {
+		return KBExp.mkApp(f, args);
+	}
+
+	@SafeVarargs
+	static KBExp<String, String> app(String f, KBExp<String, String>... args) {
+		List<KBExp<String, String>> l = new ArrayList<>();
+		for (KBExp<String, String> arg : args) {
+			l.add(arg);
+		}
+		return app(f, l);
+	}
+
+	static Iterator<String> fresh() {
+		return new Iterator<String>() {
+			private int i = 0;
+
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public String next() {
+				return "_v" + i++;
+			}
+		};
+	}
+
+	static KBExp<String, String> var(String v) {
+		return KBExp.mkVar(v);
+	}
+
+	/**
+	 * @return a term of at most the given depth over SIGNATURE and x, y, z
+	 */
+	static KBExp<String, String> random(Random rnd, int depth) {
+		List<String> syms = new ArrayList<>(SIGNATURE.keySet());
+		if (depth == 0 || rnd.nextInt(4) == 0) {
+			int k = rnd.nextInt(VARS.size() + 2);
+			return k < VARS.size() ? var(VARS.get(k)) : app(syms.get(k - VARS.size()));
+		}
+		String f = syms.get(rnd.nextInt(syms.size()));
+		List<KBExp<String, String>> args = new ArrayList<>();
+		for (int i = 0; i < SIGNATURE.get(f); i++) {
+			args.add(random(rnd, depth - 1));
+		}
+		return app(f, args);
+	}
+
+	/**
+	 * @return a random pair of terms, often related, so that orderings have something to decide:
+	 * the second is unrelated, a subterm of the first, or the first with a variable replaced
+	 */
+	static Pair<KBExp<String, String>, KBExp<String, String>> randomPair(Random rnd, int depth) {
+		KBExp<String, String> s = random(rnd, depth);
+		switch (rnd.nextInt(3)) {
+		case 0:
+			return new Pair<>(s, random(rnd, depth));
+		case 1:
+			return new Pair<>(s, s.at(rnd.nextInt(s.size)));
+		default:
+			Map<String, KBExp<String, String>> sigma = new HashMap<>();
+			sigma.put(VARS.get(rnd.nextInt(VARS.size())), random(rnd, 1));
+			return new Pair<>(s, s.subst(sigma));
+		}
+	}
+
+	//precedence a < e < * < i, a not being listed
+	static final List<String> GROUP = Arrays.asList("e", "*", "i");
+
+	static Function<Pair<String, String>, Boolean> groupPrec() {
+		return p -> GROUP.indexOf(p.first) > GROUP.indexOf(p.second);
+	}
+
+	//the weights of groups-kbo in KBCorpus, with variables weighing 1
+	static Function<String, Integer> groupWeight() {
+		return c -> c.equals("i") ? 0 : 1;
+	}
+
+	/**
+	 * @return a term over e, a, * and i of at most the given depth, and over x and y if vars
+	 */
+	static KBExp<String, String> group(Random rnd, int depth, boolean vars) {
+		int k = depth == 0 ? 0 : rnd.nextInt(4);
+		switch (k) {
+		case 0:
+			if (vars && rnd.nextBoolean()) {
+				return var(rnd.nextBoolean() ? "x" : "y");
+			}
+			return app(rnd.nextBoolean() ? "e" : "a");
+		case 1:
+			return app("i", group(rnd, depth - 1, vars));
+		default:
+			return app("*", group(rnd, depth - 1, vars), group(rnd, depth - 1, vars));
+		}
+	}
+
+	/**
+	 * The axioms of groups, over *, i and e.
+	 */
+	static List<Pair<KBExp<String, String>, KBExp<String, String>>> groups() {
+		KBExp<String, String> x = var("x"), y = var("y"), z = var("z"), e = app("e");
+		return Arrays.asList(new Pair<>(app("*", app("*", x, y), z), app("*", x, app("*", y, z))),
+				new Pair<>(app("*", e, x), x),
+				new Pair<>(app("*", app("i", x), x), e));
+	}
+
+	/**
+	 * The axioms of commutative-monoid in KBCorpus, over * and e, whose commutativity stays an
+	 * equation, with an involution i and a constant a with a * a = e, so that every symbol of
+	 * the terms of group has a rule.
+	 */
+	static List<Pair<KBExp<String, String>, KBExp<String, String>>> commutativeMonoids() {
+		KBExp<String, String> x = var("x"), y = var("y");
+		return Arrays.asList(new Pair<>(app("*", x, y), app("*", y, x)),
+				new Pair<>(app("*", app("e"), x), x),
+				new Pair<>(app("i", app("i", x)), x),
+				new Pair<>(app("*", app("a"), app("a")), app("e")));
+	}
+
+	/**
+	 * @return the completed groups-kbo of KBCorpus
+	 */
+	static KB<String, String> groupsKbo() {
+		KB<String, String> kb = new KB<>(new HashSet<>(groups()), KBOrders.kbogt(groupWeight(), 1, groupPrec()),
+				fresh(), false, true, 0, 100);
+		assertEquals(KBCompletion.Status.COMPLETE, kb.complete(60000, 200, 0).status);
+		return kb;
+	}
+
+	/**
+	 * @return the completed commutativeMonoids, by unfailing completion under LPO
+	 */
+	static KB<String, String> commutativeMonoidsLpo() {
+		KB<String, String> kb = new KB<>(new HashSet<>(commutativeMonoids()), KBOrders.lpogt(groupPrec()),
+				fresh(), true, true, 0, 100);
+		assertTrue(kb.complete(60000, 200, 0).isDone());
+		return kb;
+	}
+
+	/**
+	 * @return the rule with its variables renamed to v0, v1, ... in order of occurrence, so that
+	 * rules equal up to renaming print the same
+	 */
+	static String canonical(Pair<KBExp<String, String>, KBExp<String, String>> r) {
+		Map<String, KBExp<String, String>> sigma = new LinkedHashMap<>();
+		rename(r.first, sigma);
+		rename(r.second, sigma);
+		return r.first.subst(sigma) + " -> " + r.second.subst(sigma);
+	}
+
+	private static void rename(KBExp<String, String> e, Map<String, KBExp<String, String>> sigma) {
+		if (e.isVar) {
+			sigma.putIfAbsent(e.getVar().var, var("v" + sigma.size()));
+			return;
+		}
+		for (KBExp<String, String> arg : e.getApp().args) {
+			rename(arg, sigma);
+		}
+	}
+
+}
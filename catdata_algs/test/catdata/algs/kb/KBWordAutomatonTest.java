@@ -0,0 +1,170 @@
+package catdata.algs.kb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import catdata.algs.Pair;
+
+public class KBWordAutomatonTest {
+
+	//path problems of KBCorpus; "a.b=c" is the relation ab = c, and "a.b=" is ab = 1. Not those
+	//with relations of equal length, such as b.a=a.b, which neither rewriter uses, so that their
+	//normal forms depend on the order of rewriting
+	private static Map<String, List<String>> problems() {
+		Map<String, List<String>> ret = new LinkedHashMap<>();
+		ret.put("monoid-a4", Arrays.asList("a.a=", "b.b.b=", "a.b.a.b.a.b="));
+		ret.put("monoid-s3", Arrays.asList("a.a=", "b.b.b=", "a.b.a.b="));
+		ret.put("category-idempotent", Arrays.asList("f.f=f", "f.g=g", "h.f=h"));
+		ret.put("category-retracts", Arrays.asList("s1.r1=", "s2.r2=", "r1.s2.r2.s1=r1.s1", "s1.r1.s2=s2"));
+		return ret;
+	}
+
+	private static Set<Pair<List<String>, List<String>>> rules(List<String> rels) {
+		Set<Pair<List<String>, List<String>>> ret = new HashSet<>();
+		for (String rel : rels) {
+			String[] lr = rel.split("=", -1);
+			ret.add(new Pair<>(path(lr[0]), path(lr[1])));
+		}
+		return ret;
+	}
+
+	private static List<String> path(String s) {
+		return s.isEmpty() ? new ArrayList<>() : new ArrayList<>(Arrays.asList(s.split("\\.")));
+	}
+
+	private static List<String> word(Random rnd, List<String> letters, int max) {
+		List<String> ret = new ArrayList<>();
+		for (int i = rnd.nextInt(max + 1); i > 0; i--) {
+			ret.add(letters.get(rnd.nextInt(letters.size())));
+		}
+		return ret;
+	}
+
+	//the rewriting loop KB_Thue used before KBWordAutomaton: the first length-changing rule
+	//in iteration order with an occurrence rewrites its leftmost one, and then again from the start
+	private static <X> List<X> naive(List<X> e, Set<Pair<List<X>, List<X>>> t) {
+		List<X> ret = new LinkedList<>(e);
+		for (Pair<List<X>, List<X>> rule : t) {
+			if (rule.first.size() == rule.second.size()) {
+				continue;
+			}
+			int i = occurs(ret, rule.first);
+			if (i == -1) {
+				continue;
+			}
+			for (int j = 0; j < rule.first.size(); j++) {
+				ret.remove(i);
+			}
+			ret.addAll(i, rule.second);
+			if (!e.equals(ret)) {
+				return naive(ret, t);
+			}
+		}
+		return ret;
+	}
+
+	private static <X> int occurs(List<X> l, List<X> find) {
+		for (int i = 0; i <= l.size() - find.size(); i++) {
+			if (l.subList(i, i + find.size()).equals(find)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Test
+	public void agreesWithNaiveAfterCompletion() {
+		Random rnd = new Random(5);
+		for (Map.Entry<String, List<String>> p : problems().entrySet()) {
+			KB_Thue<String> kb = new KB_Thue<>(rules(p.getValue()), 64);
+			kb.complete();
+			List<String> letters = new ArrayList<>(new TreeSet<>(Arrays.asList(String.join(".", p.getValue()).replace("=", ".").split("\\.+"))));
+			letters.remove("");
+			for (int n = 0; n < 500; n++) {
+				List<String> w = word(rnd, letters, 16);
+				assertEquals(p.getKey() + ": " + w, naive(w, kb.getRules()), kb.normalize("", w));
+			}
+		}
+	}
+
+	//rules of the completed system are removed, and rules u -> nf(u) added, so that whatever the
+	//automaton rewrites to is irreducible and has the same normal form; then everything is put back.
+	//The automaton disables and adds rules by identity, as KB_Thue hands them over
+	@Test
+	public void agreesWithNaiveAsRulesChange() {
+		Random rnd = new Random(6);
+		for (Map.Entry<String, List<String>> p : problems().entrySet()) {
+			KB_Thue<String> kb = new KB_Thue<>(rules(p.getValue()), 64);
+			kb.complete();
+			Set<Pair<List<String>, List<String>>> complete = kb.getRules();
+			List<String> letters = new ArrayList<>(new TreeSet<>(Arrays.asList(String.join(".", p.getValue()).replace("=", ".").split("\\.+"))));
+			letters.remove("");
+
+			Set<Pair<List<String>, List<String>>> current = new HashSet<>(complete);
+			KBWordAutomaton<String> a = new KBWordAutomaton<>(current);
+			List<Pair<List<String>, List<String>>> removed = new ArrayList<>(), added = new ArrayList<>();
+			for (int round = 0; round < 20; round++) {
+				if (rnd.nextBoolean() && !current.isEmpty()) {
+					Pair<List<String>, List<String>> r = new ArrayList<>(current).get(rnd.nextInt(current.size()));
+					current.remove(r);
+					a.remove(r);
+					if (!added.remove(r)) {
+						removed.add(r);
+					}
+				} else {
+					List<String> u = word(rnd, letters, 6);
+					Pair<List<String>, List<String>> r = new Pair<>(u, naive(u, complete));
+					if (r.first.size() > r.second.size() && current.add(r)) {
+						a.add(r);
+						added.add(r);
+					}
+				}
+				for (int n = 0; n < 100; n++) {
+					List<String> w = word(rnd, letters, 16);
+					List<String> got = a.rewrite(w, null);
+					String msg = p.getKey() + " round " + round + ": " + w + " to " + got;
+					assertEquals(msg, got, naive(got, current));
+					assertEquals(msg, naive(w, complete), naive(got, complete));
+				}
+			}
+
+			//back to the completed system, partly as new pairs equal to the removed ones
+			for (Pair<List<String>, List<String>> r : added) {
+				current.remove(r);
+				a.remove(r);
+			}
+			for (Pair<List<String>, List<String>> r : removed) {
+				Pair<List<String>, List<String>> r0 = rnd.nextBoolean() ? r : new Pair<>(r.first, r.second);
+				current.add(r0);
+				a.add(r0);
+			}
+			assertEquals(complete, current);
+			for (int n = 0; n < 500; n++) {
+				List<String> w = word(rnd, letters, 16);
+				assertEquals(p.getKey() + ": " + w, naive(w, complete), a.rewrite(w, null));
+			}
+
+			//except leaves the redexes of one rule, the very pair given to the automaton, alone
+			for (Pair<List<String>, List<String>> r : current) {
+				if (r.first.size() != r.second.size()) {
+					assertEquals(r.first, a.rewrite(r.first, r));
+					assertTrue(r.toString(), a.rewrite(r.first, null).size() < r.first.size());
+				}
+			}
+		}
+	}
+
+}